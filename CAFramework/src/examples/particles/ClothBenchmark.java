@@ -0,0 +1,128 @@
+/* 
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission. 
+ */
+
+package examples.particles;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import math.Vec3;
+import particles.DampedSpring;
+import particles.EulerMethod;
+import particles.Force;
+import particles.Gravity;
+import particles.Particle;
+import particles.ParticleSystem;
+import particles.SpringNetwork;
+
+/**
+ * Headless benchmark of cloth grids with structural, shear and bending
+ * springs. Compares one DampedSpring object per spring and direction with a
+ * SpringNetwork, sequentially and on a pool.
+ */
+public class ClothBenchmark {
+
+	private static final int[] SIZES = { 32, 100, 180 };
+	
+	private static final int WARMUP = 5;
+	private static final int STEPS = 20;
+	
+	private static final float KS = 50;
+	private static final float KD = 0.5f;
+	
+	public static void main(String[] args) {
+		System.out.println("   springs   objects   network   parallel");
+		for (int size: SIZES) {
+			double objects = run(size, 0);
+			double network = run(size, 1);
+			double parallel = run(size, 2);
+			System.out.printf("%10d %6.2f ms %6.2f ms %7.2f ms%n", springs(size), objects, network, parallel);
+		}
+	}
+	
+	/**
+	 * @param mode 0 for spring objects, 1 for a network, 2 for a network on a pool
+	 * @return average time of one step in milliseconds
+	 */
+	private static double run(int size, int mode) {
+		ArrayList<Particle> particles = new ArrayList<Particle>();
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++)
+				particles.add(new Particle(1, new Vec3(x * 0.1f, 0, y * 0.1f), new Vec3(), new Vec3(), Float.POSITIVE_INFINITY, 0));
+		}
+		
+		ArrayList<Force> forces = new ArrayList<Force>();
+		forces.add(new Gravity(new Vec3(0, -9.81f, 0)));
+		SpringNetwork network = new SpringNetwork(springs(size));
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				connect(particles, forces, network, mode, size, x, y, x+1, y);
+				connect(particles, forces, network, mode, size, x, y, x, y+1);
+				connect(particles, forces, network, mode, size, x, y, x+1, y+1);
+				connect(particles, forces, network, mode, size, x+1, y, x, y+1);
+				connect(particles, forces, network, mode, size, x, y, x+2, y);
+				connect(particles, forces, network, mode, size, x, y, x, y+2);
+			}
+		}
+		
+		ParticleSystem psystem;
+		if (mode == 0) {
+			psystem = new ParticleSystem(particles, forces);
+		}
+		else {
+			// the network needs no particle objects, the ids are the indices of the store
+			forces.add(network);
+			psystem = new ParticleSystem(null, forces);
+			psystem.getStore().ensureCapacity(particles.size());
+			for (Particle p: particles)
+				psystem.getStore().add(p.mass, p.pos.x, p.pos.y, p.pos.z, 0, Float.POSITIVE_INFINITY);
+		}
+		psystem.setDynamic();
+		if (mode == 2)
+			psystem.setParallel(ForkJoinPool.commonPool(), ParticleSystem.DEFAULT_CHUNK_SIZE);
+		
+		EulerMethod solver = new EulerMethod(1);
+		float h = 1f / 600;
+		float t = 0;
+		for (int i = 0; i < WARMUP; i++, t += h)
+			solver.solve(psystem, t, t + h);
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < STEPS; i++, t += h)
+			solver.solve(psystem, t, t + h);
+		return (System.nanoTime() - start) / 1e6 / STEPS;
+	}
+	
+	private static void connect(ArrayList<Particle> particles, ArrayList<Force> forces, SpringNetwork network, 
+			int mode, int size, int x1, int y1, int x2, int y2) {
+		if (x1 >= size || y1 >= size || x2 >= size || y2 >= size)
+			return;
+		
+		int a = y1 * size + x1;
+		int b = y2 * size + x2;
+		Particle p1 = particles.get(a);
+		Particle p2 = particles.get(b);
+		float length = Vec3.sub(p1.pos, p2.pos).length();
+		if (mode == 0) {
+			forces.add(new DampedSpring(p1, p2, KS, KD, length));
+			forces.add(new DampedSpring(p2, p1, KS, KD, length));
+		}
+		else {
+			network.addSpring(a, b, KS, KD, length);
+		}
+	}
+	
+	/**
+	 * @return Number of springs of a grid with size x size particles
+	 */
+	private static int springs(int size) {
+		return 2 * size * (size - 1) + 2 * (size - 1) * (size - 1) + 2 * size * (size - 2);
+	}
+}
@@ -0,0 +1,311 @@
+/* 
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission. 
+ */
+
+package examples.particles;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import math.Vec3;
+import particles.EulerMethod;
+import particles.ExternalForce;
+import particles.FloorRepeller;
+import particles.Force;
+import particles.Gravity;
+import particles.Particle;
+import particles.ParticleController;
+import particles.ParticleKernels;
+import particles.ParticleStore;
+import particles.ParticleSystem;
+import particles.PointAttractor;
+import particles.PointEmitter;
+import particles.PointRepeller;
+import particles.SPHFluid;
+import particles.SemiImplicitEulerMethod;
+import particles.Viscous;
+
+/**
+ * Headless benchmark of the particle update. Compares the evaluation of 
+ * external forces per particle object with the batch evaluation on the 
+ * particle store for 10k, 100k and 1M particles. Both variants are
+ * integrated with the same Euler method.
+ * 
+ * The second table times the array kernels of ParticleKernels against the
+ * loops which the solvers used before: the Euler update as scale and add
+ * over a copy of the state, and the accelerations per particle object. Run
+ * with -XX:-UseSuperWord to compare without auto vectorization.
+ * 
+ * The last tables run an emitter with about 100k living particles and a 
+ * block of 50k SPH particles through a ParticleController, once 
+ * sequentially and once on the common pool, see 
+ * ParticleController.setParallel().
+ */
+public class ParticleBenchmark {
+
+	private static final int[] SIZES = { 10000, 100000, 1000000 };
+	
+	private static final int WARMUP = 5;
+	private static final int STEPS = 20;
+	
+	private static final int KERNEL_WARMUP = 200;
+	private static final int KERNEL_RUNS = 100;
+	
+	/**
+	 * Emission rate and lifespan of the fountain, about 100k living particles
+	 */
+	private static final int FOUNTAIN_RATE = 50000;
+	private static final float FOUNTAIN_LIFESPAN = 2;
+	
+	/**
+	 * Edge length of the SPH block in particles, 37^3 = 50653 particles
+	 */
+	private static final int SPH_EDGE = 37;
+	private static final float SPH_RADIUS = 0.1f;
+	private static final float SPH_REST_DENSITY = 1000;
+	
+	/**
+	 * Hides the batch implementation of a force, so that the default 
+	 * evaluation per particle object is used
+	 */
+	private static class PerParticle extends ExternalForce {
+		
+		private ExternalForce force;
+		
+		public PerParticle(ExternalForce force) {
+			super(null);
+			this.force = force;
+		}
+		
+		@Override
+		public void eval(float time) {
+		}
+		
+		@Override
+		public void eval(float time, Particle particle) {
+			force.eval(time, particle);
+		}
+	}
+	
+	public static void main(String[] args) {
+		System.out.println("particles   per particle   batch   speedup");
+		for (int size: SIZES) {
+			double single = run(size, false);
+			double batch = run(size, true);
+			System.out.printf("%9d %11.2f ms %7.2f ms %7.2fx%n", size, single, batch, single / batch);
+		}
+		
+		System.out.println();
+		System.out.println("particles   euler update: loops   kernel   accelerations: objects   kernel");
+		for (int size: SIZES)
+			kernels(size);
+		
+		System.out.println();
+		System.out.printf("fountain, %d particles per second, %d threads in the common pool%n", 
+				FOUNTAIN_RATE, ForkJoinPool.commonPool().getParallelism());
+		// the first run only warms up the compiler
+		fountain(null);
+		double sequentialFountain = fountain(null);
+		double parallelFountain = fountain(ForkJoinPool.commonPool());
+		System.out.printf("sequential %.2f ms   parallel %.2f ms   speedup %.2fx%n", 
+				sequentialFountain, parallelFountain, sequentialFountain / parallelFountain);
+		
+		System.out.println();
+		System.out.printf("SPH, %d particles, %d threads in the common pool%n", 
+				SPH_EDGE * SPH_EDGE * SPH_EDGE, ForkJoinPool.commonPool().getParallelism());
+		double sequential = sph(null);
+		double parallel = sph(ForkJoinPool.commonPool());
+		System.out.printf("sequential %.2f ms   parallel %.2f ms   speedup %.2fx%n", 
+				sequential, parallel, sequential / parallel);
+	}
+	
+	/**
+	 * Runs a controller with an emitter, which creates its particle system
+	 * itself, so the pool is set through the controller
+	 * @param pool Pool of the particle system, null for sequential evaluation
+	 * @return average time of one update of the controller in milliseconds
+	 */
+	private static double fountain(ForkJoinPool pool) {
+		PointEmitter emitter = new PointEmitter(FOUNTAIN_RATE, FOUNTAIN_LIFESPAN, new Vec3(0, 1, 0));
+		ParticleController controller = new ParticleController(null, emitter, forces(true), new EulerMethod(1));
+		controller.setParallel(pool, ParticleSystem.DEFAULT_CHUNK_SIZE);
+		
+		// fill the fountain up to its steady number of particles
+		float h = 1f / 60;
+		int frame = 1;
+		while (h * frame < FOUNTAIN_LIFESPAN)
+			controller.update(h * frame++);
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < STEPS; i++)
+			controller.update(h * frame++);
+		return (System.nanoTime() - start) / 1e6 / STEPS;
+	}
+	
+	/**
+	 * Lets a block of fluid fall under gravity
+	 * @param pool Pool of the particle system, null for sequential evaluation
+	 * @return average time of one update of the controller in milliseconds
+	 */
+	private static double sph(ForkJoinPool pool) {
+		ArrayList<Force> forces = new ArrayList<Force>();
+		forces.add(new Gravity(new Vec3(0, -9.81f, 0)));
+		forces.add(new SPHFluid(SPH_RADIUS, 3, SPH_REST_DENSITY, 0.5f));
+		ParticleSystem psystem = new ParticleSystem(null, forces);
+		psystem.setDynamic();
+		
+		// lattice at half the smoothing radius, the mass gives the rest density
+		float spacing = SPH_RADIUS / 2;
+		float mass = SPH_REST_DENSITY * spacing * spacing * spacing;
+		ParticleStore store = psystem.getStore();
+		store.ensureCapacity(SPH_EDGE * SPH_EDGE * SPH_EDGE);
+		for (int x = 0; x < SPH_EDGE; x++) {
+			for (int y = 0; y < SPH_EDGE; y++) {
+				for (int z = 0; z < SPH_EDGE; z++)
+					store.add(mass, x * spacing, 1 + y * spacing, z * spacing, 0, Float.POSITIVE_INFINITY);
+			}
+		}
+		
+		ParticleController controller = new ParticleController(psystem, new SemiImplicitEulerMethod(1));
+		controller.setParallel(pool, ParticleSystem.DEFAULT_CHUNK_SIZE);
+		float h = 1f / 240;
+		int frame = 1;
+		for (int i = 0; i < WARMUP; i++)
+			controller.update(h * frame++);
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < STEPS; i++)
+			controller.update(h * frame++);
+		return (System.nanoTime() - start) / 1e6 / STEPS;
+	}
+	
+	/**
+	 * Times the kernels and the former loops for one size, in milliseconds per call
+	 */
+	private static void kernels(int size) {
+		int n = 3*size;
+		Random random = new Random(0);
+		float[] state = new float[2*n];
+		float[] deriv = new float[2*n];
+		float[] force = new float[n];
+		float[] mass = new float[size];
+		for (int i = 0; i < 2*n; i++) {
+			state[i] = random.nextFloat();
+			deriv[i] = random.nextFloat();
+		}
+		for (int i = 0; i < n; i++)
+			force[i] = random.nextFloat();
+		ArrayList<Particle> particles = new ArrayList<Particle>(size);
+		for (int i = 0; i < size; i++) {
+			mass[i] = 1 + random.nextFloat();
+			Particle particle = new Particle();
+			particle.mass = mass[i];
+			particle.force = new Vec3(force[3*i], force[3*i+1], force[3*i+2]);
+			particles.add(particle);
+		}
+		float h = 1e-6f;
+		
+		long[] times = new long[4];
+		for (int run = 0; run < KERNEL_WARMUP + KERNEL_RUNS; run++) {
+			if (run == KERNEL_WARMUP)
+				times = new long[4];
+			
+			long t0 = System.nanoTime();
+			float[] scaled = deriv.clone();
+			scaleLoop(scaled, h);
+			addLoop(state, scaled, state);
+			long t1 = System.nanoTime();
+			ParticleKernels.axpy(h, deriv, 0, state, 0, 2*n);
+			long t2 = System.nanoTime();
+			accelerationLoop(particles, deriv, n);
+			long t3 = System.nanoTime();
+			ParticleKernels.accelerations(force, mass, deriv, n, size);
+			long t4 = System.nanoTime();
+			
+			times[0] += t1 - t0;
+			times[1] += t2 - t1;
+			times[2] += t3 - t2;
+			times[3] += t4 - t3;
+		}
+		System.out.printf("%9d %19.3f ms %6.3f ms %20.3f ms %6.3f ms%n", size, 
+				times[0] / 1e6 / KERNEL_RUNS, times[1] / 1e6 / KERNEL_RUNS, 
+				times[2] / 1e6 / KERNEL_RUNS, times[3] / 1e6 / KERNEL_RUNS);
+	}
+	
+	/**
+	 * Former DifferentialSolver.scale()
+	 */
+	private static void scaleLoop(float[] a, float h) {
+		for (int i = 0; i < a.length; i++)
+			a[i] *= h;
+	}
+	
+	/**
+	 * Former DifferentialSolver.add()
+	 */
+	private static void addLoop(float[] a, float[] b, float[] c) {
+		for (int i = 0; i < a.length; i++)
+			c[i] = a[i] + b[i];
+	}
+	
+	/**
+	 * Former accelerations of ParticleSystem.getDerivative(), per particle object
+	 */
+	private static void accelerationLoop(ArrayList<Particle> particles, float[] deriv, int offset) {
+		for (int i = 0; i < particles.size(); i++) {
+			int j = offset + 3*i;
+			float mass = particles.get(i).mass;
+			deriv[j]   = particles.get(i).force.x / mass;
+			deriv[j+1] = particles.get(i).force.y / mass;
+			deriv[j+2] = particles.get(i).force.z / mass;
+		}
+	}
+	
+	/**
+	 * @return average time of one step in milliseconds
+	 */
+	private static double run(int size, boolean batch) {
+		ParticleSystem psystem = new ParticleSystem(null, forces(batch));
+		psystem.setDynamic();
+		
+		Random random = new Random(0);
+		psystem.getStore().ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			int index = psystem.getStore().add(1, random.nextFloat() * 10 - 5, random.nextFloat() * 10, 
+					random.nextFloat() * 10 - 5, 0, Float.POSITIVE_INFINITY);
+			psystem.getStore().setVelocity(index, random.nextFloat() - 0.5f, 0, random.nextFloat() - 0.5f);
+		}
+		
+		EulerMethod solver = new EulerMethod(1);
+		float h = 1f / 60;
+		float t = 0;
+		for (int i = 0; i < WARMUP; i++, t += h)
+			solver.solve(psystem, t, t + h);
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < STEPS; i++, t += h)
+			solver.solve(psystem, t, t + h);
+		return (System.nanoTime() - start) / 1e6 / STEPS;
+	}
+	
+	private static ArrayList<Force> forces(boolean batch) {
+		ArrayList<ExternalForce> list = new ArrayList<ExternalForce>();
+		list.add(new Gravity(new Vec3(0, -9.81f, 0)));
+		list.add(new Viscous(0.1f));
+		list.add(new PointAttractor(new Vec3(0, 5, 0), 1, 2));
+		list.add(new PointRepeller(new Vec3(0, 0, 0), 1, 2));
+		list.add(new FloorRepeller(new Vec3(0, 1, 0), new Vec3(0, 0, 0), 1, 2));
+		
+		ArrayList<Force> forces = new ArrayList<Force>();
+		for (ExternalForce force: list)
+			forces.add(batch ? force : new PerParticle(force));
+		return forces;
+	}
+}
@@ -12,11 +12,11 @@ package examples.particles;
 
 import java.util.ArrayList;
 
-import particles.DampedSpring;
 import particles.Force;
 import particles.Particle;
 import particles.ParticleEulerController;
 import particles.ParticleSystem;
+import particles.SpringNetwork;
 import math.Vec3;
 import math.Vec4;
 import renderer.AbstRenderer;
@@ -141,10 +141,10 @@ public class TestSpring {
 		float L = 3f;
 		float ks = 1.0f;
 		float kd = 0.1f;
-		DampedSpring spring1 = new DampedSpring(p1,p2, ks, kd, L);
-		DampedSpring spring2 = new DampedSpring(p2,p1, ks, kd, L);
-		forces.add(spring1);
-		forces.add(spring2);
+		// one spring acts on both particles, they are referenced by their index in the list
+		SpringNetwork springs = new SpringNetwork();
+		springs.addSpring(0, 1, ks, kd, L);
+		forces.add(springs);
 		
 		ParticleSystem psystem = new ParticleSystem(particles, forces);
 
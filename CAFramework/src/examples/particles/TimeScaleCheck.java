@@ -0,0 +1,92 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package examples.particles;
+
+import java.util.ArrayList;
+
+import math.Vec3;
+import particles.DifferentialSolver;
+import particles.DormandPrinceMethod;
+import particles.EulerMethod;
+import particles.Force;
+import particles.Gravity;
+import particles.HeunMethod;
+import particles.ParticleStore;
+import particles.ParticleSystem;
+import particles.RungeKuttaMethod;
+import particles.SemiImplicitEulerMethod;
+import particles.VelocityVerletMethod;
+import particles.Viscous;
+
+/**
+ * Headless check of the time scales of ParticleSystem.setTimeScales(), on
+ * which ParticleLOD relies: for each explicit solver a step of length h
+ * with time scale k has to move a particle like a step of length k h
+ * without time scale. The particle falls under gravity with damping and
+ * starts with a velocity, so that the kick of the velocity into the
+ * positions is checked as well.
+ */
+public class TimeScaleCheck {
+
+	private static final float SCALE = 3;
+	private static final float STEP = 0.1f;
+	private static final float TOLERANCE = 1e-5f;
+
+	public static void main(String[] args) {
+		boolean ok = true;
+		System.out.printf("scale %.0f, step %.2f s against one step of %.2f s%n", SCALE, STEP, SCALE * STEP);
+		System.out.println("solver                    scaled y    reference y   difference");
+		for (int s = 0; s < 6; s++) {
+			float[] scaled = run(solver(s), SCALE, STEP);
+			float[] reference = run(solver(s), 1, SCALE * STEP);
+			float difference = 0;
+			for (int j = 0; j < scaled.length; j++)
+				difference = Math.max(difference, Math.abs(scaled[j] - reference[j]));
+			boolean match = difference <= TOLERANCE * (1 + Math.abs(reference[1]));
+			ok &= match;
+			System.out.printf("%-24s %10.5f   %10.5f   %.2e %s%n", solver(s).getClass().getSimpleName(),
+					scaled[1], reference[1], difference, match ? "" : "FAILED");
+		}
+		if (!ok)
+			System.exit(1);
+	}
+
+	private static DifferentialSolver solver(int index) {
+		switch (index) {
+		case 0:  return new EulerMethod(1);
+		case 1:  return new HeunMethod(1);
+		case 2:  return new RungeKuttaMethod(1);
+		case 3:  return new DormandPrinceMethod(1e-4f, 1e-4f);
+		case 4:  return new SemiImplicitEulerMethod(1);
+		default: return new VelocityVerletMethod(1);
+		}
+	}
+
+	/**
+	 * Integrates one particle from 0 to h with the given time scale
+	 * @return position and velocity of the particle
+	 */
+	private static float[] run(DifferentialSolver solver, float scale, float h) {
+		ArrayList<Force> forces = new ArrayList<Force>();
+		forces.add(new Gravity(new Vec3(0, -9.81f, 0)));
+		forces.add(new Viscous(0.5f));
+		ParticleSystem psystem = new ParticleSystem(null, forces);
+		psystem.setDynamic();
+		ParticleStore store = psystem.getStore();
+		store.add(1, 0, 0, 0, 0, Float.POSITIVE_INFINITY);
+		store.setVelocity(0, 1, 2, 0);
+		psystem.setTimeScales(new float[] { scale });
+
+		solver.solve(psystem, 0, h);
+		return new float[] { store.pos[0], store.pos[1], store.pos[2],
+				store.vel[0], store.vel[1], store.vel[2] };
+	}
+}
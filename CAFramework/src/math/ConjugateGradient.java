@@ -0,0 +1,128 @@
+/* 
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Graphics Group
+ *
+ * Copyright (c) 2014 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission. 
+ */
+
+package math;
+
+/**
+ * Conjugate gradient method with Jacobi preconditioner for symmetric positive 
+ * definite sparse matrices. The work vectors are kept between calls and only 
+ * reallocated, when a larger system is solved, so iterations do not allocate.
+ */
+public class ConjugateGradient
+{
+	private int   maxIterations;
+	private float tolerance;
+	
+	private float[] r;
+	private float[] z;
+	private float[] p;
+	private float[] q;
+	private float[] invDiag;
+	
+	private int iterations;
+	
+	
+	/**
+	 * @param maxIterations
+	 *            Maximum number of iterations per solve
+	 * @param tolerance
+	 *            Iteration stops when the residual norm is below tolerance 
+	 *            times the norm of the right hand side
+	 */
+	public ConjugateGradient( int maxIterations, float tolerance )
+	{
+		this.maxIterations = maxIterations;
+		this.tolerance     = tolerance;
+		this.r = this.z = this.p = this.q = this.invDiag = new float[0];
+	}
+	
+	
+	/**
+	 * Solves A x = b. On entry x is the initial guess.
+	 * 
+	 * @return number of iterations
+	 */
+	public int solve( SparseMatrix a, float[] b, float[] x )
+	{
+		int n = a.size();
+		if( r.length < n )
+		{
+			r = new float[n];
+			z = new float[n];
+			p = new float[n];
+			q = new float[n];
+			invDiag = new float[n];
+		}
+		
+		a.diagonal( invDiag );
+		for( int i = 0; i < n; ++i )
+			invDiag[i] = invDiag[i] != 0.0f ? 1.0f / invDiag[i] : 1.0f;
+		
+		// r = b - A x, z = M^-1 r, p = z
+		a.multiply( x, q );
+		float bb = 0.0f;
+		float rz = 0.0f;
+		for( int i = 0; i < n; ++i )
+		{
+			r[i] = b[i] - q[i];
+			z[i] = invDiag[i] * r[i];
+			p[i] = z[i];
+			rz += r[i] * z[i];
+			bb += b[i] * b[i];
+		}
+		
+		float limit = tolerance * tolerance * bb;
+		iterations = 0;
+		
+		while( iterations < maxIterations )
+		{
+			float rr = 0.0f;
+			for( int i = 0; i < n; ++i )
+				rr += r[i] * r[i];
+			if( rr <= limit )
+				break;
+			
+			a.multiply( p, q );
+			float pq = 0.0f;
+			for( int i = 0; i < n; ++i )
+				pq += p[i] * q[i];
+			if( pq <= 0.0f )
+				break;
+			
+			float alpha = rz / pq;
+			float rzNew = 0.0f;
+			for( int i = 0; i < n; ++i )
+			{
+				x[i] += alpha * p[i];
+				r[i] -= alpha * q[i];
+				z[i]  = invDiag[i] * r[i];
+				rzNew += r[i] * z[i];
+			}
+			
+			float beta = rzNew / rz;
+			rz = rzNew;
+			for( int i = 0; i < n; ++i )
+				p[i] = z[i] + beta * p[i];
+			
+			iterations++;
+		}
+		
+		return iterations;
+	}
+	
+	
+	/**
+	 * @return number of iterations of the last solve
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+}
@@ -0,0 +1,138 @@
+/* 
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Graphics Group
+ *
+ * Copyright (c) 2014 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission. 
+ */
+
+package math;
+
+import java.util.Arrays;
+
+/**
+ * Square sparse matrix in compressed sparse row (CSR) format. The structure, 
+ * i.e. the positions of the non zero elements, is fixed at construction, the
+ * values can be changed by their index in the values array.
+ */
+public final class SparseMatrix
+{
+	/**
+	 * Number of rows and columns
+	 */
+	private final int size;
+	
+	/**
+	 * Elements of row i are stored at rowPtr[i] .. rowPtr[i+1]-1
+	 */
+	private final int[] rowPtr;
+	
+	/**
+	 * Column of each stored element
+	 */
+	private final int[] colIdx;
+	
+	/**
+	 * Value of each stored element
+	 */
+	private final float[] values;
+	
+	
+	/**
+	 * Constructs a matrix with the given structure, all values are zero.
+	 * 
+	 * @param size
+	 *            Number of rows and columns
+	 * @param rowPtr
+	 *            Start of each row in colIdx, with size+1 entries
+	 * @param colIdx
+	 *            Column of each element, sorted within each row
+	 */
+	public SparseMatrix( int size, int[] rowPtr, int[] colIdx )
+	{
+		assert rowPtr.length == size + 1 : "rowPtr needs size+1 entries";
+		this.size   = size;
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.values = new float[rowPtr[size]];
+	}
+	
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	
+	/**
+	 * @return number of stored elements
+	 */
+	public int nonZeros()
+	{
+		return values.length;
+	}
+	
+	
+	/**
+	 * Sets all values to zero, the structure is kept
+	 */
+	public void clear()
+	{
+		Arrays.fill( values, 0.0f );
+	}
+	
+	
+	/**
+	 * @return index of the first element of a row in the values array
+	 */
+	public int rowStart( int row )
+	{
+		return rowPtr[row];
+	}
+	
+	
+	/**
+	 * Adds a value to the element with the given index in the values array
+	 */
+	public void add( int index, float value )
+	{
+		values[index] += value;
+	}
+	
+	
+	/**
+	 * y = A * x
+	 */
+	public void multiply( float[] x, float[] y )
+	{
+		for( int i = 0; i < size; ++i )
+		{
+			float sum = 0.0f;
+			for( int k = rowPtr[i]; k < rowPtr[i+1]; ++k )
+				sum += values[k] * x[colIdx[k]];
+			y[i] = sum;
+		}
+	}
+	
+	
+	/**
+	 * Copies the diagonal elements to d, missing diagonal elements are zero
+	 */
+	public void diagonal( float[] d )
+	{
+		for( int i = 0; i < size; ++i )
+		{
+			d[i] = 0.0f;
+			for( int k = rowPtr[i]; k < rowPtr[i+1]; ++k )
+			{
+				if( colIdx[k] == i )
+				{
+					d[i] = values[k];
+					break;
+				}
+			}
+		}
+	}
+}
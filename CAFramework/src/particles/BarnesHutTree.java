@@ -0,0 +1,377 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Octree over the particles of a store for the approximation of far field
+ * interactions after Barnes and Hut. The particles are sorted along a Morton
+ * curve, so every node covers a contiguous range of sorted particles. Levels
+ * where all particles of a node fall into the same octant are skipped, hence
+ * each inner node has at least two children and the tree has less than 2n
+ * nodes, which are stored in flat arrays.
+ *
+ * The subtrees of large nodes are built in parallel when a pool is given.
+ * Queries only read the tree and may run in parallel.
+ */
+public class BarnesHutTree {
+	
+	/**
+	 * Number of levels, i.e. bits of the Morton code per axis
+	 */
+	public static final int DEPTH = 14;
+	
+	/**
+	 * Maximum number of particles, the index is stored next to the Morton code
+	 */
+	public static final int MAX_PARTICLES = 1 << 21;
+	
+	private static final int LEAF_SIZE = 8;
+	
+	/**
+	 * Number of particles below which a subtree is built by a single task
+	 */
+	private static final int GRAIN = 4096;
+	
+	private int size;
+	
+	/**
+	 * Morton code in the upper and particle index in the lower 21 bits, sorted
+	 */
+	private long[] keys;
+	
+	/**
+	 * Particle index, position and mass in sorted order
+	 */
+	private int[] sortedIndex;
+	private float[] sortedPos;
+	private float[] sortedMass;
+	
+	private float minX, minY, minZ;
+	private float rootSize;
+	
+	/**
+	 * Nodes: edge length, total mass, center of mass and either the first of
+	 * the consecutive children or -1 with the range of sorted particles for leaves
+	 */
+	private float[] nodeSize;
+	private float[] nodeMass;
+	private float[] nodeCenter;
+	private int[] firstChild;
+	private int[] childCount;
+	private int[] rangeStart;
+	private int[] rangeEnd;
+	private AtomicInteger nodeCount;
+	
+	public BarnesHutTree() {
+		this.size = 0;
+		this.keys = new long[0];
+		this.sortedIndex = new int[0];
+		this.sortedPos = new float[0];
+		this.sortedMass = new float[0];
+		this.nodeCount = new AtomicInteger();
+		allocateNodes(0);
+	}
+	
+	/**
+	 * @return number of nodes of the last build
+	 */
+	public int getNodeCount() {
+		return nodeCount.get();
+	}
+	
+	/**
+	 * Builds the tree over the current positions and masses of a store
+	 * @param store
+	 * @param pool Pool for a parallel build, null for a sequential build
+	 */
+	public void build(ParticleStore store, ForkJoinPool pool) {
+		size = store.size();
+		if (size > MAX_PARTICLES)
+			throw new IllegalArgumentException("Barnes-Hut tree supports at most " + MAX_PARTICLES + " particles");
+		
+		nodeCount.set(0);
+		if (size == 0)
+			return;
+		
+		if (keys.length < size) {
+			int capacity = store.capacity();
+			keys = new long[capacity];
+			sortedIndex = new int[capacity];
+			sortedPos = new float[3*capacity];
+			sortedMass = new float[capacity];
+			allocateNodes(2*capacity);
+		}
+		
+		computeBounds(store.pos);
+		computeKeys(store.pos);
+		if (pool != null && size > GRAIN)
+			pool.invoke(new SortTask());
+		else
+			Arrays.sort(keys, 0, size);
+		
+		for (int k = 0; k < size; k++) {
+			int i = (int) (keys[k] & (MAX_PARTICLES - 1));
+			sortedIndex[k] = i;
+			sortedPos[3*k]   = store.pos[3*i];
+			sortedPos[3*k+1] = store.pos[3*i+1];
+			sortedPos[3*k+2] = store.pos[3*i+2];
+			sortedMass[k] = store.mass[i];
+		}
+		
+		nodeCount.set(1);
+		if (pool != null && size > GRAIN)
+			pool.invoke(new BuildTask(0, 0, size, 0));
+		else
+			build(0, 0, size, 0, false);
+	}
+	
+	/**
+	 * Adds the gravitational field of all particles, i.e. the sum of 
+	 * m_j (x_j - x) / (|x_j - x|^2 + softening^2)^(3/2), to result[0..2]
+	 * @param x Position
+	 * @param y
+	 * @param z
+	 * @param self Particle which is excluded, -1 for none
+	 * @param theta Opening angle, nodes whose edge length is below theta
+	 *        times their distance are approximated by their center of mass
+	 * @param softening
+	 * @param result
+	 * @param stack Work array with at least stackSize() elements
+	 */
+	public void field(float x, float y, float z, int self, float theta, float softening, 
+			float[] result, int[] stack) {
+		if (nodeCount.get() == 0)
+			return;
+		
+		float eps2 = softening * softening;
+		float theta2 = theta * theta;
+		float fx = 0, fy = 0, fz = 0;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (firstChild[node] < 0) {
+				for (int k = rangeStart[node]; k < rangeEnd[node]; k++) {
+					if (sortedIndex[k] == self)
+						continue;
+					float dx = sortedPos[3*k] - x;
+					float dy = sortedPos[3*k+1] - y;
+					float dz = sortedPos[3*k+2] - z;
+					float d2 = dx*dx + dy*dy + dz*dz + eps2;
+					if (d2 == 0)
+						continue;
+					float s = sortedMass[k] / (d2 * (float) Math.sqrt(d2));
+					fx += s * dx;
+					fy += s * dy;
+					fz += s * dz;
+				}
+				continue;
+			}
+			
+			float dx = nodeCenter[3*node] - x;
+			float dy = nodeCenter[3*node+1] - y;
+			float dz = nodeCenter[3*node+2] - z;
+			float d2 = dx*dx + dy*dy + dz*dz;
+			if (nodeSize[node] * nodeSize[node] < theta2 * d2) {
+				d2 += eps2;
+				float s = nodeMass[node] / (d2 * (float) Math.sqrt(d2));
+				fx += s * dx;
+				fy += s * dy;
+				fz += s * dz;
+			}
+			else {
+				for (int c = 0; c < childCount[node]; c++)
+					stack[top++] = firstChild[node] + c;
+			}
+		}
+		result[0] += fx;
+		result[1] += fy;
+		result[2] += fz;
+	}
+	
+	/**
+	 * @return required length of the work array of field()
+	 */
+	public static int stackSize() {
+		return 8 * (DEPTH + 1);
+	}
+	
+	private void allocateNodes(int capacity) {
+		nodeSize = new float[capacity];
+		nodeMass = new float[capacity];
+		nodeCenter = new float[3*capacity];
+		firstChild = new int[capacity];
+		childCount = new int[capacity];
+		rangeStart = new int[capacity];
+		rangeEnd = new int[capacity];
+	}
+	
+	private void computeBounds(float[] pos) {
+		float maxX, maxY, maxZ;
+		minX = maxX = pos[0];
+		minY = maxY = pos[1];
+		minZ = maxZ = pos[2];
+		for (int i = 1; i < size; i++) {
+			minX = Math.min(minX, pos[3*i]);
+			minY = Math.min(minY, pos[3*i+1]);
+			minZ = Math.min(minZ, pos[3*i+2]);
+			maxX = Math.max(maxX, pos[3*i]);
+			maxY = Math.max(maxY, pos[3*i+1]);
+			maxZ = Math.max(maxZ, pos[3*i+2]);
+		}
+		rootSize = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+		rootSize = (rootSize > 0) ? rootSize * 1.0001f : 1;
+	}
+	
+	private void computeKeys(float[] pos) {
+		float scale = (1 << DEPTH) / rootSize;
+		int max = (1 << DEPTH) - 1;
+		for (int i = 0; i < size; i++) {
+			int qx = Math.min(max, (int) ((pos[3*i] - minX) * scale));
+			int qy = Math.min(max, (int) ((pos[3*i+1] - minY) * scale));
+			int qz = Math.min(max, (int) ((pos[3*i+2] - minZ) * scale));
+			keys[i] = (spread(qx) << 2 | spread(qy) << 1 | spread(qz)) << 21 | i;
+		}
+	}
+	
+	/**
+	 * Inserts two zero bits between the bits of v
+	 */
+	private static long spread(int v) {
+		long x = v;
+		x = (x | x << 16) & 0x0000FF0000FFL;
+		x = (x | x << 8)  & 0x00F00F00F00FL;
+		x = (x | x << 4)  & 0x0C30C30C30C3L;
+		x = (x | x << 2)  & 0x249249249249L;
+		return x;
+	}
+	
+	/**
+	 * Octant of sorted particle k at the given level
+	 */
+	private int octant(int k, int level) {
+		return (int) (keys[k] >>> (21 + 3*(DEPTH - 1 - level))) & 7;
+	}
+	
+	/**
+	 * Builds the subtree of a node which covers the sorted particles lo .. hi-1
+	 */
+	private void build(int node, int lo, int hi, int level, boolean parallel) {
+		while (level < DEPTH && hi - lo > LEAF_SIZE && octant(lo, level) == octant(hi-1, level))
+			level++;
+		nodeSize[node] = rootSize / (1 << level);
+		
+		if (hi - lo <= LEAF_SIZE || level == DEPTH) {
+			firstChild[node] = -1;
+			childCount[node] = 0;
+			rangeStart[node] = lo;
+			rangeEnd[node] = hi;
+			float m = 0, cx = 0, cy = 0, cz = 0;
+			for (int k = lo; k < hi; k++) {
+				m += sortedMass[k];
+				cx += sortedMass[k] * sortedPos[3*k];
+				cy += sortedMass[k] * sortedPos[3*k+1];
+				cz += sortedMass[k] * sortedPos[3*k+2];
+			}
+			summarize(node, m, cx, cy, cz);
+			return;
+		}
+		
+		// split the range at the octant boundaries, the particles are sorted by octant
+		int[] bounds = new int[9];
+		int count = 0;
+		int a = lo;
+		while (a < hi) {
+			int o = octant(a, level);
+			int b = a + 1;
+			while (b < hi && octant(b, level) == o)
+				b++;
+			bounds[count++] = a;
+			a = b;
+		}
+		bounds[count] = hi;
+		
+		int base = nodeCount.getAndAdd(count);
+		firstChild[node] = base;
+		childCount[node] = count;
+		rangeStart[node] = lo;
+		rangeEnd[node] = hi;
+		
+		if (parallel && hi - lo > GRAIN) {
+			BuildTask[] tasks = new BuildTask[count];
+			for (int c = 0; c < count; c++)
+				tasks[c] = new BuildTask(base + c, bounds[c], bounds[c+1], level + 1);
+			RecursiveAction.invokeAll(tasks);
+		}
+		else {
+			for (int c = 0; c < count; c++)
+				build(base + c, bounds[c], bounds[c+1], level + 1, false);
+		}
+		
+		float m = 0, cx = 0, cy = 0, cz = 0;
+		for (int c = base; c < base + count; c++) {
+			m += nodeMass[c];
+			cx += nodeMass[c] * nodeCenter[3*c];
+			cy += nodeMass[c] * nodeCenter[3*c+1];
+			cz += nodeMass[c] * nodeCenter[3*c+2];
+		}
+		summarize(node, m, cx, cy, cz);
+	}
+	
+	private void summarize(int node, float m, float cx, float cy, float cz) {
+		nodeMass[node] = m;
+		float inv = (m > 0) ? 1 / m : 0;
+		nodeCenter[3*node]   = cx * inv;
+		nodeCenter[3*node+1] = cy * inv;
+		nodeCenter[3*node+2] = cz * inv;
+	}
+	
+	/**
+	 * Builds a subtree, large subtrees fork tasks for their children
+	 */
+	private class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int node;
+		private final int lo;
+		private final int hi;
+		private final int level;
+		
+		BuildTask(int node, int lo, int hi, int level) {
+			this.node = node;
+			this.lo = lo;
+			this.hi = hi;
+			this.level = level;
+		}
+		
+		@Override
+		protected void compute() {
+			build(node, lo, hi, level, true);
+		}
+	}
+	
+	/**
+	 * Sorts the keys, the parallel sort uses the pool of the task
+	 */
+	private class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected void compute() {
+			Arrays.parallelSort(keys, 0, size);
+		}
+	}
+}
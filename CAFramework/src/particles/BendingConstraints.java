@@ -0,0 +1,110 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import math.MathUtil;
+
+/**
+ * Triangle bending constraints after Kelager et al. Each constraint keeps the
+ * distance of a middle particle from the centroid of the triangle formed with
+ * its two neighbors at its rest value. For a rope the neighbors are the
+ * previous and the next particle, for cloth the neighbors along the rows and
+ * columns of the grid.
+ */
+public class BendingConstraints extends ColoredConstraints {
+
+	public BendingConstraints() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity Initial number of constraints
+	 */
+	public BendingConstraints(int capacity) {
+		super(3, capacity);
+	}
+
+	/**
+	 * @param a Id of the first neighbor
+	 * @param b Id of the second neighbor
+	 * @param v Id of the middle particle
+	 * @param distance Rest distance of the middle particle from the centroid
+	 * @param compliance Inverse bending stiffness
+	 */
+	public void add(int a, int b, int v, float distance, float compliance) {
+		int c = append(distance, compliance);
+		ids[0][c] = a;
+		ids[1][c] = b;
+		ids[2][c] = v;
+	}
+
+	/**
+	 * Adds a constraint between three particles of a store, the rest
+	 * distance is taken from their current positions
+	 * @param i Index of the first neighbor in the store
+	 * @param j Index of the second neighbor in the store
+	 * @param k Index of the middle particle in the store
+	 */
+	public void add(ParticleStore store, int i, int j, int k, float compliance) {
+		float[] pos = store.pos;
+		float dx = pos[3*k]   - (pos[3*i]   + pos[3*j]   + pos[3*k])   / 3;
+		float dy = pos[3*k+1] - (pos[3*i+1] + pos[3*j+1] + pos[3*k+1]) / 3;
+		float dz = pos[3*k+2] - (pos[3*i+2] + pos[3*j+2] + pos[3*k+2]) / 3;
+		add(store.id(i), store.id(j), store.id(k), (float) Math.sqrt(dx*dx + dy*dy + dz*dz), compliance);
+	}
+
+	/**
+	 * With d = x_v - centroid and n = d/|d| the constraint C = |d| - rest has
+	 * the gradients 2/3 n for the middle particle and -1/3 n for the neighbors
+	 */
+	@Override
+	protected void project(int c, float alpha) {
+		int a = store.slot(ids[0][c]);
+		int b = store.slot(ids[1][c]);
+		int v = store.slot(ids[2][c]);
+		if (a < 0 || b < 0 || v < 0)
+			return;
+
+		float wa = inverseMass(a);
+		float wb = inverseMass(b);
+		float wv = inverseMass(v);
+		float w = (4 * wv + wa + wb) / 9;
+		if (w + alpha == 0)
+			return;
+
+		float[] pos = store.pos;
+		a *= 3;
+		b *= 3;
+		v *= 3;
+		float dx = pos[v]   - (pos[a]   + pos[b]   + pos[v])   / 3;
+		float dy = pos[v+1] - (pos[a+1] + pos[b+1] + pos[v+1]) / 3;
+		float dz = pos[v+2] - (pos[a+2] + pos[b+2] + pos[v+2]) / 3;
+		float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (distance < MathUtil.EPS)
+			return;
+
+		float C = distance - rest[c];
+		float dlambda = (-C - alpha * lambda[c]) / (w + alpha);
+		lambda[c] += dlambda;
+
+		float s = dlambda / (3 * distance);
+		float sv = 2 * wv * s;
+		pos[v]   += sv * dx;
+		pos[v+1] += sv * dy;
+		pos[v+2] += sv * dz;
+		pos[a]   -= wa * s * dx;
+		pos[a+1] -= wa * s * dy;
+		pos[a+2] -= wa * s * dz;
+		pos[b]   -= wb * s * dx;
+		pos[b+1] -= wb * s * dy;
+		pos[b+2] -= wb * s * dz;
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Geometry which particles cannot pass. Unlike forces, colliders correct the
+ * state of the particles at the end of each solver step, see 
+ * ParticleSystem.endStep().
+ */
+public interface Collider {
+	
+	/**
+	 * Tests the paths of the particles from .. to-1 during the last step and
+	 * corrects the positions and velocities of colliding particles. Must be 
+	 * thread safe for disjoint ranges of particles.
+	 * @param store Particles at the end of the step
+	 * @param previous Positions at the begin of the step, packed like store.pos
+	 * @param from First particle
+	 * @param to End of range, exclusive
+	 */
+	void collide(ParticleStore store, float[] previous, int from, int to);
+}
@@ -0,0 +1,169 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import math.MathUtil;
+import math.Vec3;
+
+/**
+ * Inequality constraints which keep all particles of the store outside of
+ * static obstacles, i.e. above planes and outside of spheres. Particles are
+ * treated as spheres of a common radius. Each constraint only moves one
+ * particle, so chunks of particles are projected in parallel.
+ *
+ * Triangle meshes are handled by a MeshCollider of the particle system,
+ * which is applied at the end of each step.
+ */
+public class CollisionConstraints implements Constraints {
+
+	/**
+	 * Number of particles per task
+	 */
+	private static final int GRAIN = 4096;
+
+	/**
+	 * Planes as normal and offset, i.e. n.x >= d for points x above the plane
+	 */
+	private float[] planes;
+	private int planeCount;
+
+	/**
+	 * Spheres as center and radius
+	 */
+	private float[] spheres;
+	private int sphereCount;
+
+	private float radius;
+
+	private ParticleStore store;
+
+	/**
+	 * @param radius Radius of the particles
+	 */
+	public CollisionConstraints(float radius) {
+		this.planes = new float[0];
+		this.planeCount = 0;
+		this.spheres = new float[0];
+		this.sphereCount = 0;
+		this.radius = radius;
+	}
+
+	/**
+	 * Adds a plane, the particles are kept on the side into which the normal points
+	 * @param normal Normal of the plane, does not need to be normalized
+	 * @param point Point on the plane
+	 */
+	public void addPlane(Vec3 normal, Vec3 point) {
+		Vec3 n = new Vec3(normal);
+		n.normalize();
+		planes = Arrays.copyOf(planes, 4 * (planeCount + 1));
+		planes[4*planeCount]   = n.x;
+		planes[4*planeCount+1] = n.y;
+		planes[4*planeCount+2] = n.z;
+		planes[4*planeCount+3] = Vec3.dot(n, point);
+		planeCount++;
+	}
+
+	/**
+	 * Adds a sphere, the particles are kept outside of it
+	 */
+	public void addSphere(Vec3 center, float sphereRadius) {
+		spheres = Arrays.copyOf(spheres, 4 * (sphereCount + 1));
+		spheres[4*sphereCount]   = center.x;
+		spheres[4*sphereCount+1] = center.y;
+		spheres[4*sphereCount+2] = center.z;
+		spheres[4*sphereCount+3] = sphereRadius;
+		sphereCount++;
+	}
+
+	public void setRadius(float radius) {
+		this.radius = radius;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	/**
+	 * Inequality constraints without compliance need no multipliers
+	 */
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public void project(ParticleStore store, float h, ForkJoinPool pool) {
+		this.store = store;
+		if (pool != null && store.size() > GRAIN)
+			pool.invoke(new ProjectTask(0, store.size()));
+		else
+			project(0, store.size());
+	}
+
+	private void project(int from, int to) {
+		float[] pos = store.pos;
+		float[] mass = store.mass;
+		for (int i = from; i < to; i++) {
+			if (!(mass[i] < Float.POSITIVE_INFINITY))
+				continue;
+
+			int j = 3*i;
+			for (int p = 0; p < planeCount; p++) {
+				float nx = planes[4*p], ny = planes[4*p+1], nz = planes[4*p+2];
+				float s = nx*pos[j] + ny*pos[j+1] + nz*pos[j+2] - planes[4*p+3] - radius;
+				if (s < 0) {
+					pos[j]   -= s * nx;
+					pos[j+1] -= s * ny;
+					pos[j+2] -= s * nz;
+				}
+			}
+			for (int s = 0; s < sphereCount; s++) {
+				float dx = pos[j]   - spheres[4*s];
+				float dy = pos[j+1] - spheres[4*s+1];
+				float dz = pos[j+2] - spheres[4*s+2];
+				float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+				float depth = spheres[4*s+3] + radius - distance;
+				if (depth > 0 && distance > MathUtil.EPS) {
+					float f = depth / distance;
+					pos[j]   += f * dx;
+					pos[j+1] += f * dy;
+					pos[j+2] += f * dz;
+				}
+			}
+		}
+	}
+
+	private class ProjectTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		ProjectTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= GRAIN) {
+				project(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new ProjectTask(from, mid), new ProjectTask(mid, to));
+		}
+	}
+}
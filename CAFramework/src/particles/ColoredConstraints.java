@@ -0,0 +1,190 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Base class of constraints between a fixed number of particles, stored in
+ * plain arrays. Each constraint has a rest value, a compliance (inverse
+ * stiffness, 0 for a rigid constraint) and a Lagrange multiplier.
+ *
+ * The constraints are colored such that no two constraints of one color share
+ * a particle, see GraphColoring. The colors are projected one after the other
+ * like in a Gauss-Seidel iteration, the constraints of one color in parallel.
+ *
+ * Particles are referenced by their id in the particle store like in
+ * SpringNetwork, constraints of dead particles are skipped.
+ */
+public abstract class ColoredConstraints implements Constraints {
+
+	/**
+	 * Number of constraints below which a color is not split further
+	 */
+	private static final int GRAIN = 2048;
+
+	/**
+	 * ids[k][c] is the id of the k-th particle of constraint c
+	 */
+	protected int[][] ids;
+
+	protected float[] rest;
+	protected float[] compliance;
+	protected float[] lambda;
+
+	protected int count;
+
+	/**
+	 * The constraints colorStart[c] .. colorStart[c+1]-1 share no particle,
+	 * the last range holds the constraints without color
+	 */
+	private int[] colorStart;
+	private boolean colored;
+
+	/**
+	 * Store and time step of the current projection
+	 */
+	protected ParticleStore store;
+	private float invH2;
+
+	/**
+	 * @param arity Number of particles per constraint
+	 * @param capacity Initial number of constraints
+	 */
+	protected ColoredConstraints(int arity, int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.ids = new int[arity][capacity];
+		this.rest = new float[capacity];
+		this.compliance = new float[capacity];
+		this.lambda = new float[capacity];
+		this.count = 0;
+		this.colorStart = new int[0];
+		this.colored = false;
+	}
+
+	/**
+	 * Appends a constraint, the subclass sets its particle ids
+	 * @return Index of the new constraint
+	 */
+	protected int append(float rest, float compliance) {
+		if (count == this.rest.length) {
+			int capacity = 2 * count;
+			for (int k = 0; k < ids.length; k++)
+				ids[k] = Arrays.copyOf(ids[k], capacity);
+			this.rest = Arrays.copyOf(this.rest, capacity);
+			this.compliance = Arrays.copyOf(this.compliance, capacity);
+			lambda = Arrays.copyOf(lambda, capacity);
+		}
+		this.rest[count] = rest;
+		this.compliance[count] = compliance;
+		colored = false;
+		return count++;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public void clear() {
+		count = 0;
+		colored = false;
+	}
+
+	/**
+	 * @return Number of colors of the parallel projection
+	 */
+	public int colors() {
+		if (!colored)
+			color();
+		return colorStart.length - 2;
+	}
+
+	@Override
+	public void reset() {
+		Arrays.fill(lambda, 0, count, 0);
+	}
+
+	@Override
+	public void project(ParticleStore store, float h, ForkJoinPool pool) {
+		if (!colored)
+			color();
+
+		this.store = store;
+		this.invH2 = 1 / (h * h);
+		int ranges = colorStart.length - 1;
+		for (int c = 0; c < ranges; c++) {
+			int from = colorStart[c];
+			int to = colorStart[c+1];
+			if (pool != null && c < ranges - 1 && to - from > GRAIN)
+				pool.invoke(new ProjectTask(from, to));
+			else
+				project(from, to);
+		}
+	}
+
+	private void project(int from, int to) {
+		for (int c = from; c < to; c++)
+			project(c, compliance[c] * invH2);
+	}
+
+	/**
+	 * Projects the positions of the particles of one constraint and updates its multiplier
+	 * @param c Index of the constraint
+	 * @param alpha Compliance divided by the square of the time step
+	 */
+	protected abstract void project(int c, float alpha);
+
+	/**
+	 * @return Inverse mass of particle i of the store, 0 for infinite mass
+	 */
+	protected float inverseMass(int i) {
+		float m = store.mass[i];
+		return (m > 0) ? 1 / m : 0;
+	}
+
+	private void color() {
+		int[] order = new int[count];
+		colorStart = GraphColoring.color(ids, count, order);
+		for (int k = 0; k < ids.length; k++)
+			ids[k] = GraphColoring.permute(ids[k], order, count);
+		rest = GraphColoring.permute(rest, order, count);
+		compliance = GraphColoring.permute(compliance, order, count);
+		lambda = GraphColoring.permute(lambda, order, count);
+		colored = true;
+	}
+
+	/**
+	 * Projects a range of constraints of one color
+	 */
+	private class ProjectTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		ProjectTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= GRAIN) {
+				project(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new ProjectTask(from, mid), new ProjectTask(mid, to));
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Set of constraints of the position based XPBDMethod. A constraint moves
+ * the predicted positions of its particles in the particle store directly.
+ */
+public interface Constraints {
+	
+	/**
+	 * Resets the accumulated Lagrange multipliers at the begin of a step
+	 */
+	void reset();
+	
+	/**
+	 * Projects the positions of the particles once onto all constraints of the set
+	 * @param store Particles with predicted positions
+	 * @param h Time step, scales the compliance of the constraints
+	 * @param pool Pool for parallel projection, null for sequential projection
+	 */
+	void project(ParticleStore store, float h, ForkJoinPool pool);
+}
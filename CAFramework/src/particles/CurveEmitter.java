@@ -10,7 +10,6 @@
 
 package particles;
 
-import math.MathUtil;
 import math.Vec3;
 import math.function.FunctionR1Vec3;
 
@@ -36,7 +35,7 @@ public class CurveEmitter extends Emitter {
 	
 
 	public Vec3 getStartPosition() {
-		float t = MathUtil.unif(f.getTMin(), f.getTMax());
+		float t = ParticleRandom.nextFloat(random, f.getTMin(), f.getTMax());
 		return f.eval(t);
 	}	
 
@@ -17,7 +17,7 @@ import math.Vec3;
  * @author Stefan
  *
  */
-public class DampedSpring extends Force {
+public class DampedSpring extends Force implements PairForce {
 	private Particle p2;
 	float ks;  	// spring constant
 	float kd;	// damping constant
@@ -50,4 +50,26 @@ public class DampedSpring extends Force {
 		Vec3 f = Vec3.mul(pMinusp2, factorSpring + factorDamping);	
 		p.force.add(f);
 	}
+	
+	public Particle getParticle() {
+		return p;
+	}
+	
+	public Particle getOtherParticle() {
+		return p2;
+	}
+	
+	/**
+	 * The derivative of the damping term with respect to the positions is neglected
+	 */
+	public void jacobian(float[] dfdx, float[] dfdv) {
+		Spring.springJacobian(p, p2, ks, L, dfdx);
+		
+		float dx = p.pos.x - p2.pos.x;
+		float dy = p.pos.y - p2.pos.y;
+		float dz = p.pos.z - p2.pos.z;
+		float lengthSq = dx*dx + dy*dy + dz*dz;
+		float scale = (lengthSq > 0) ? -kd / lengthSq : 0;
+		Spring.outer(dfdv, scale, 0, dx, dy, dz);
+	}
 }
@@ -10,21 +10,103 @@
 
 package particles;
 
-
+/**
+ * Base class of all solvers for the differential equation of a particle system.
+ * A solver owns its scratch buffers and reuses them for all calls of solve(),
+ * they are only reallocated, when the dimension of the particle system grows
+ * beyond their size.
+ */
 abstract public class DifferentialSolver
 {
 	
+	/**
+	 * Extra room for growing particle systems, when scratch buffers are reallocated
+	 */
+	private static final float GROWTH_FACTOR = 1.5f;
+	
 	/**
 	 * The number of iteration steps for each update 
 	 */
 	protected int steps;
 	
+	/**
+	 * Scratch buffers, indexed by slot
+	 */
+	private float[][] buffers;
+	
+	/**
+	 * Number of scratch buffer allocations since construction
+	 */
+	private int allocations;
+	
+	/**
+	 * Number of derivative evaluations of the last call of solve()
+	 */
+	protected int evaluations;
+	
 	public DifferentialSolver (int steps) {
 		this.steps = steps;
+		this.buffers = new float[0][];
+		this.allocations = 0;
+		this.evaluations = 0;
+	}
+	
+	/**
+	 * Returns the scratch buffer of a slot, with at least the given dimension.
+	 * The buffer is reused between calls and only reallocated if it is too small,
+	 * therefore its content is undefined.
+	 * @param slot Index of the buffer, each solver numbers its buffers from 0
+	 * @param dimension Minimum length of the buffer
+	 * @return scratch buffer
+	 */
+	protected float[] buffer(int slot, int dimension) {
+		if (slot >= buffers.length) {
+			float[][] grown = new float[slot+1][];
+			System.arraycopy(buffers, 0, grown, 0, buffers.length);
+			buffers = grown;
+		}
+		float[] buffer = buffers[slot];
+		if (buffer == null || buffer.length < dimension) {
+			int length = buffer == null ? dimension : Math.max(dimension, (int) (buffer.length * GROWTH_FACTOR));
+			buffer = new float[length];
+			buffers[slot] = buffer;
+			allocations++;
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Returns the number of scratch buffer allocations since construction. 
+	 * Once the particle system has reached its size, the count does not 
+	 * change any more, i.e. solve() does not produce garbage.
+	 * @return number of allocations
+	 */
+	public int getAllocationCount() {
+		return allocations;
 	}
 
 	
 	abstract public void solve (ParticleSystem psystem, float tstart, float tend);
+	
+	/**
+	 * Evaluates the derivative of the particle system and counts the evaluation
+	 * @param psystem The particle system
+	 * @param deriv Receives the derivative
+	 * @param t Time of evaluation
+	 */
+	protected void evaluate(ParticleSystem psystem, float[] deriv, float t) {
+		psystem.getDerivative(deriv, t);
+		evaluations++;
+	}
+	
+	/**
+	 * Returns the number of derivative evaluations, which the last call 
+	 * of solve() needed. This is the dominating cost of a solver.
+	 * @return number of evaluations
+	 */
+	public int getEvaluationCount() {
+		return evaluations;
+	}
 	/**
 	 * Multiplies each component of an array with a factor, i.e a[i] = h * a[i]
 	 * 
@@ -35,11 +117,22 @@ abstract public class DifferentialSolver
 	 */
 	protected static void scale(float[] a, float h)
 	{
-		for (int i = 0; i < a.length; i++)
-		{
-			a[i] *= h;
-		}
-		return;
+		scale(a, h, a.length);
+	}
+
+	/**
+	 * Multiplies the first n components of an array with a factor
+	 * 
+	 * @param a
+	 *            Array which is modified
+	 * @param h
+	 *            Factor
+	 * @param n
+	 *            Number of components
+	 */
+	protected static void scale(float[] a, float h, int n)
+	{
+		ParticleKernels.scale(a, h, n);
 	}
 
 	/**
@@ -54,11 +147,25 @@ abstract public class DifferentialSolver
 	 */
 	protected static void add(float[] a, float[] b, float[] c)
 	{
-		for (int i = 0; i < a.length; i++)
-		{
-			c[i] = a[i] + b[i];
-		}
-		return;
+		add(a, b, c, a.length);
+	}
+
+	/**
+	 * Adds the first n components of two array a and b and stores the result 
+	 * on array c
+	 * 
+	 * @param a
+	 *            Input
+	 * @param b
+	 *            Input
+	 * @param c
+	 *            Result
+	 * @param n
+	 *            Number of components
+	 */
+	protected static void add(float[] a, float[] b, float[] c, int n)
+	{
+		ParticleKernels.add(a, b, c, n);
 	}
 
 }
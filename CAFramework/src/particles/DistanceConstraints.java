@@ -0,0 +1,91 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import math.MathUtil;
+
+/**
+ * Constraints which keep the distance of two particles at a rest length,
+ * the position based counterpart of SpringNetwork
+ */
+public class DistanceConstraints extends ColoredConstraints {
+
+	public DistanceConstraints() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity Initial number of constraints
+	 */
+	public DistanceConstraints(int capacity) {
+		super(2, capacity);
+	}
+
+	/**
+	 * @param a Id of the first particle
+	 * @param b Id of the second particle
+	 * @param length Rest length
+	 * @param compliance Inverse stiffness, 0 for an inextensible constraint
+	 */
+	public void add(int a, int b, float length, float compliance) {
+		int c = append(length, compliance);
+		ids[0][c] = a;
+		ids[1][c] = b;
+	}
+
+	/**
+	 * Adds a constraint between two particles of a store, the rest length
+	 * is their current distance
+	 * @param i Index of the first particle in the store
+	 * @param j Index of the second particle in the store
+	 */
+	public void add(ParticleStore store, int i, int j, float compliance) {
+		float dx = store.pos[3*i] - store.pos[3*j];
+		float dy = store.pos[3*i+1] - store.pos[3*j+1];
+		float dz = store.pos[3*i+2] - store.pos[3*j+2];
+		add(store.id(i), store.id(j), (float) Math.sqrt(dx*dx + dy*dy + dz*dz), compliance);
+	}
+
+	@Override
+	protected void project(int c, float alpha) {
+		int i = store.slot(ids[0][c]);
+		int j = store.slot(ids[1][c]);
+		if (i < 0 || j < 0)
+			return;
+
+		float wi = inverseMass(i);
+		float wj = inverseMass(j);
+		if (wi + wj + alpha == 0)
+			return;
+
+		float[] pos = store.pos;
+		i *= 3;
+		j *= 3;
+		float dx = pos[i] - pos[j];
+		float dy = pos[i+1] - pos[j+1];
+		float dz = pos[i+2] - pos[j+2];
+		float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (distance < MathUtil.EPS)
+			return;
+
+		float C = distance - rest[c];
+		float dlambda = (-C - alpha * lambda[c]) / (wi + wj + alpha);
+		lambda[c] += dlambda;
+
+		float s = dlambda / distance;
+		pos[i]   += wi * s * dx;
+		pos[i+1] += wi * s * dy;
+		pos[i+2] += wi * s * dz;
+		pos[j]   -= wj * s * dx;
+		pos[j+1] -= wj * s * dy;
+		pos[j+2] -= wj * s * dz;
+	}
+}
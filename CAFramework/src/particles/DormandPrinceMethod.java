@@ -0,0 +1,215 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Adaptive Runge-Kutta method of order 5(4) after Dormand and Prince.
+ * The solver chooses the size of its substeps between tstart and tend by
+ * comparing the embedded solutions of order 4 and 5. Accepted steps need six
+ * derivative evaluations, as the last stage is reused as first stage of the
+ * next step. The step size of the last call is the first guess for the next one.
+ */
+public class DormandPrinceMethod extends DifferentialSolver {
+
+	private static final float[] C = { 0, 1f/5, 3f/10, 4f/5, 8f/9, 1, 1 };
+
+	private static final float[][] A = {
+		{},
+		{ 1f/5 },
+		{ 3f/40, 9f/40 },
+		{ 44f/45, -56f/15, 32f/9 },
+		{ 19372f/6561, -25360f/2187, 64448f/6561, -212f/729 },
+		{ 9017f/3168, -355f/33, 46732f/5247, 49f/176, -5103f/18656 },
+		{ 35f/384, 0, 500f/1113, 125f/192, -2187f/6784, 11f/84 }
+	};
+
+	/**
+	 * Difference between the weights of the solutions of order 5 and 4
+	 */
+	private static final float[] E = { 71f/57600, 0, -71f/16695, 71f/1920, -17253f/339200, 22f/525, -1f/40 };
+
+	/**
+	 * Maximum number of substeps per call of solve(). The last substep covers
+	 * the rest of the interval without error control, so that solve() always
+	 * reaches tend.
+	 */
+	private static final int MAX_SUBSTEPS = 10000;
+
+	private float absTolerance;
+	private float relTolerance;
+
+	/**
+	 * Step size of the last accepted step, 0 if unknown
+	 */
+	private float stepSize;
+
+	/**
+	 * Number of accepted and rejected substeps of the last call of solve()
+	 */
+	private int accepted;
+	private int rejected;
+	
+	/**
+	 * Set if the last call of solve() reached MAX_SUBSTEPS
+	 */
+	private boolean limitReached;
+
+	/**
+	 * Stage derivatives, references to scratch buffers
+	 */
+	private float[][] k;
+
+	/**
+	 * Constructor
+	 * @param absTolerance Absolute error tolerance per substep for each state component
+	 * @param relTolerance Relative error tolerance per substep for each state component
+	 */
+	public DormandPrinceMethod (float absTolerance, float relTolerance) {
+		super(1);
+		this.absTolerance = absTolerance;
+		this.relTolerance = relTolerance;
+		this.stepSize = 0;
+		this.k = new float[7][];
+	}
+
+	@Override
+	public void solve (ParticleSystem psystem, float tstart, float tend) {
+
+		evaluations = 0;
+		accepted = 0;
+		rejected = 0;
+		limitReached = false;
+
+		float deltaTime = tend - tstart;
+		if (deltaTime <= 0)
+			return;
+
+		int dimension = psystem.getDimension();
+		float[] state = buffer(0, dimension);
+		float[] sum = buffer(1, dimension);
+		for (int s = 0; s < 7; s++)
+			k[s] = buffer(2 + s, dimension);
+
+		float h = (stepSize > 0) ? Math.min(stepSize, deltaTime) : deltaTime;
+		float hMin = deltaTime * 1e-6f;
+		float t = tstart;
+
+		psystem.beginStep();
+		psystem.getState(state);
+		evaluate(psystem, k[0], t);
+
+		while (t < tend) {
+			float planned = h;
+			// the last allowed substep is forced to finish the interval
+			boolean forced = (accepted + rejected == MAX_SUBSTEPS - 1);
+			boolean last = forced || (t + h >= tend);
+			if (last)
+				h = tend - t;
+
+			// stages 2 to 7, the state after stage 7 is the new solution
+			for (int s = 1; s < 7; s++) {
+				combine(A[s], k, sum, dimension);
+				psystem.setState(state);
+				psystem.advance(sum, h);
+				evaluate(psystem, k[s], t + C[s]*h);
+			}
+
+			float error = error(state, sum, h, dimension);
+			float factor = (error > 0) ? 0.9f * (float) Math.pow(error, -0.2) : 5;
+			float hNew = Math.max(hMin, h * Math.min(5, Math.max(0.2f, factor)));
+
+			if (forced && error > 1)
+				limitReached = true;
+
+			if (error <= 1 || h <= hMin || forced) {
+				t = last ? tend : t + h;
+				accepted++;
+				boolean collided = psystem.endStep();
+				psystem.getState(state);
+
+				// first same as last, unless colliders have changed the state
+				if (collided) {
+					evaluate(psystem, k[0], t);
+				}
+				else {
+					float[] tmp = k[0];
+					k[0] = k[6];
+					k[6] = tmp;
+				}
+				psystem.beginStep();
+
+				// a step which was shortened to hit tend says nothing against the planned size
+				stepSize = last ? Math.max(planned, hNew) : hNew;
+			}
+			else {
+				rejected++;
+				psystem.setState(state);
+				stepSize = hNew;
+			}
+			h = hNew;
+		}
+	}
+
+	/**
+	 * sum = sum of a[j] * k[j]
+	 */
+	private static void combine(float[] a, float[][] k, float[] sum, int n) {
+		for (int i = 0; i < n; i++) {
+			float v = 0;
+			for (int j = 0; j < a.length; j++)
+				v += a[j] * k[j][i];
+			sum[i] = v;
+		}
+	}
+
+	/**
+	 * Scaled maximum norm of the local error estimate
+	 * @param state State at begin of step
+	 * @param sum Increment of the last stage, i.e. the new state is state + h * sum
+	 */
+	private float error(float[] state, float[] sum, float h, int n) {
+		float max = 0;
+		for (int i = 0; i < n; i++) {
+			float e = 0;
+			for (int j = 0; j < 7; j++)
+				e += E[j] * k[j][i];
+			e = Math.abs(h * e);
+
+			float y0 = Math.abs(state[i]);
+			float y1 = Math.abs(state[i] + h * sum[i]);
+			float scale = absTolerance + relTolerance * Math.max(y0, y1);
+			max = Math.max(max, e / scale);
+		}
+		return max;
+	}
+
+	/**
+	 * @return number of accepted substeps of the last call of solve()
+	 */
+	public int getAcceptedSteps() {
+		return accepted;
+	}
+
+	/**
+	 * @return number of rejected substeps of the last call of solve()
+	 */
+	public int getRejectedSteps() {
+		return rejected;
+	}
+	
+	/**
+	 * @return true, if the last call of solve() hit the substep limit and 
+	 * finished the interval with a step beyond the error tolerance
+	 */
+	public boolean isLimitReached() {
+		return limitReached;
+	}
+}
@@ -11,9 +11,12 @@
 package particles;
 
 import java.util.ArrayList;
+import java.util.SplittableRandom;
 
+import math.Mat3;
 import math.MathUtil;
 import math.Vec3;
+import math.Vec4;
 
 
 /**
@@ -27,6 +30,11 @@ public class Emitter {
 	 */
 	protected float acc;
 	protected float emissionRate;
+	
+	/**
+	 * Factor of the emission rate, e.g. to stay within a frame budget
+	 */
+	protected float rateScale;
 	protected float lifespan;
 	protected float terminationTime;
 	protected float velAngle;
@@ -35,6 +43,17 @@ public class Emitter {
 	protected float minSpeed;
 	protected float maxSpeed;
 	protected boolean randomSpeed;
+	
+	/**
+	 * Color and point size of new particles, if the store has attributes
+	 */
+	protected Vec4 color;
+	protected float pointSize;
+	
+	/**
+	 * Random stream of the emitter, see ParticleRandom
+	 */
+	protected SplittableRandom random;
 
 	/**
 	 * Constructor of class. 
@@ -43,6 +62,7 @@ public class Emitter {
 	 */
 	public Emitter(float emissionRate, float lifespan) {
 		this.emissionRate = emissionRate;
+		this.rateScale = 1;
 		this.lifespan = lifespan;
 		this.randomSpeed = true;
 		this.minSpeed = 0;
@@ -50,19 +70,64 @@ public class Emitter {
 		this.speed = 0;
 		this.velAngle = 0;
 		this.terminationTime = Float.POSITIVE_INFINITY;
+		this.color = new Vec4(1, 1, 1, 1);
+		this.pointSize = 1;
+		this.random = new SplittableRandom(ParticleRandom.nextSeed());
 	}
 	
 
+	public void setRateScale(float rateScale) {
+		this.rateScale = rateScale;
+	}
+	
+	public float getRateScale() {
+		return rateScale;
+	}
+	
 	public ArrayList<Particle> emit(float tlast, float now) {
 
+		return generateParticles(numberOfParticles(tlast, now), now);
+	}	
+	
+	/**
+	 * Emits the particles of the interval [tlast, now] directly into a particle 
+	 * store. The slots of dead particles which have been removed from the store
+	 * are reused, i.e. no objects are created per particle.
+	 * @param tlast
+	 * @param now
+	 * @param store
+	 * @return number of emitted particles
+	 */
+	public int emit(float tlast, float now, ParticleStore store) {
+		
+		int numberParticles = numberOfParticles(tlast, now);
+		if (now >= terminationTime || numberParticles == 0)
+			return 0;
+		
+		Mat3 rotation = (velAngle > 0) ? coneRotation() : null;
+		store.ensureCapacity(store.size() + numberParticles);
+		for (int i = 0; i < numberParticles; i++) {
+			int index = store.add(1.0f, 0, 0, 0, now, lifespan);
+			initialPosition(store.pos, 3*index);
+			if (randomSpeed)
+				speed = ParticleRandom.nextFloat(random, minSpeed, maxSpeed);
+			initialVelocity(store.vel, 3*index, rotation);
+			if (store.hasAttributes()) {
+				store.setColor(index, color.x, color.y, color.z, color.w);
+				store.pointSize[index] = pointSize;
+			}
+		}
+		return numberParticles;
+	}
+	
+	private int numberOfParticles(float tlast, float now) {
 		float delta = now - tlast;
-		float v = emissionRate*delta;
+		float v = emissionRate*rateScale*delta;
 		acc += v;
 		int numberParticles = (int) Math.floor(acc);
 		acc -= numberParticles;
-
-		return generateParticles(numberParticles, now);
-	}	
+		return numberParticles;
+	}
 	
 	
 	private ArrayList<Particle> generateParticles(int numberParticles, float time)
@@ -78,7 +143,7 @@ public class Emitter {
 				newParticle.lifespan = lifespan;
 				if( randomSpeed)
 				{
-					speed = MathUtil.unif(minSpeed, maxSpeed);
+					speed = ParticleRandom.nextFloat(random, minSpeed, maxSpeed);
 				}
 				
 				newParticle.vel = generateVelocityVec();
@@ -91,23 +156,90 @@ public class Emitter {
 	
 	private Vec3 generateVelocityVec()
 	{
-		Vec3 velocity;
-		
-		//Vec3 pos = TestRepellerAttraktor.createRandomPointCone(new Vec3(0,1,0), (float) Math.tan(MathUtil.DEGTORAD * 80));
-		if (velAngle > 0)
-			velocity = Vec3.createRandomPointCone(velDir, velAngle);
-		else
-			velocity = Vec3.createRandomPointOnSphere();
-		
-		velocity.mul(speed);
-		return velocity;
+		float[] velocity = new float[3];
+		initialVelocity(velocity, 0, (velAngle > 0) ? coneRotation() : null);
+		return new Vec3(velocity[0], velocity[1], velocity[2]);
+	}
+	
+	/**
+	 * Writes the velocity of a new particle to vel[offset], vel[offset+1], 
+	 * vel[offset+2]: a random direction on the sphere or in the velocity cone 
+	 * as in Vec3.createRandomPointCone(), scaled by the current speed.
+	 * @param rotation Rotation of the z axis onto the cone direction, see coneRotation()
+	 */
+	private void initialVelocity(float[] vel, int offset, Mat3 rotation)
+	{
+		float x, y, z;
+		if (velAngle > 0) {
+			// random point on circle, scaled into the cone around -z
+			float angle = ParticleRandom.nextFloat(random) * MathUtil.PI_DOUBLE;
+			float a = ParticleRandom.nextFloat(random) * velAngle;
+			x = (float) Math.sin(angle) * a;
+			y = (float) Math.cos(angle) * a;
+			z = -1;
+			float length = (float) Math.sqrt(x*x + y*y + z*z);
+			x /= length;
+			y /= length;
+			z /= length;
+			float rx = rotation.m00 * x + rotation.m01 * y + rotation.m02 * z;
+			float ry = rotation.m10 * x + rotation.m11 * y + rotation.m12 * z;
+			float rz = rotation.m20 * x + rotation.m21 * y + rotation.m22 * z;
+			x = rx;
+			y = ry;
+			z = rz;
+		}
+		else {
+			ParticleRandom.pointOnSphere(random, vel, offset);
+			x = vel[offset];
+			y = vel[offset+1];
+			z = vel[offset+2];
+		}
+		vel[offset] = x * speed;
+		vel[offset+1] = y * speed;
+		vel[offset+2] = z * speed;
+	}
+	
+	/**
+	 * Rotation of the velocity cone as in Vec3.createRandomPointCone()
+	 */
+	private Mat3 coneRotation()
+	{
+		Vec3 zAxis = Vec3.zAxis();
+		double dv = Vec3.dot(velDir, zAxis);
+		dv /= velDir.length();
+		float rotAngle = (float) Math.acos(dv);
+		return Mat3.rotation(Vec3.cross(velDir, zAxis), rotAngle);
 	}
 	
 	public Vec3 getInitialPosition()
 	{
-		return Vec3.createRandomVec3UnitCube();
+		return new Vec3(ParticleRandom.nextFloat(random), ParticleRandom.nextFloat(random), 
+				ParticleRandom.nextFloat(random));
 	}
 	
+	/**
+	 * Writes the initial position of a new particle to pos[offset], 
+	 * pos[offset+1], pos[offset+2]. The default implementation copies
+	 * getInitialPosition(), subclasses may override it to avoid the 
+	 * temporary vector.
+	 */
+	protected void initialPosition(float[] pos, int offset)
+	{
+		Vec3 p = getInitialPosition();
+		pos[offset] = p.x;
+		pos[offset+1] = p.y;
+		pos[offset+2] = p.z;
+	}
+	
+	
+	/**
+	 * Makes the emission reproducible
+	 * @param seed
+	 */
+	public void setSeed(long seed)
+	{
+		random = new SplittableRandom(seed);
+	}
 	
 	public void setTermination(float time)
 	{
@@ -125,10 +257,20 @@ public class Emitter {
 	{
 		this.minSpeed = a;
 		this.maxSpeed = b;
-		this.speed = MathUtil.unif (minSpeed, maxSpeed);
+		this.speed = ParticleRandom.nextFloat(random, minSpeed, maxSpeed);
 		this.randomSpeed = true; 
 	}
 	
+	/**
+	 * Sets color and point size factor of new particles, which are only
+	 * stored if the particle store has attributes, see ParticleStore.enableAttributes()
+	 */
+	public void setAttributes (Vec4 color, float pointSize)
+	{
+		this.color = new Vec4(color);
+		this.pointSize = pointSize;
+	}
+	
 	public void setConstantSpeed (float speed)
 	{
 		this.speed = speed;
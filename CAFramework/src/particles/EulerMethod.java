@@ -19,21 +19,19 @@ public class EulerMethod extends DifferentialSolver {
 	@Override
 	public void solve (ParticleSystem psystem, float tstart, float tend) {
 
+		evaluations = 0;
 		int dimension = psystem.getDimension();
-		float[] state = new float[dimension];
-		float[] deriv = new float[dimension];
+		float[] deriv = buffer(0, dimension);
 		
 		float deltaTime = tend - tstart;		
 		float h = deltaTime / steps;
 
 		for (int i = 0 ; i < steps; i++) {
 			float t = tstart + h*i;
-			psystem.getState(state);
-			psystem.getDerivative(deriv,t);
-			
-			scale(deriv,h);
-			add(state, deriv, state);
-			psystem.setState(state);
+			psystem.beginStep();
+			evaluate(psystem, deriv, t);
+			psystem.advance(deriv, h);
+			psystem.endStep();
 		}
 	}	
 }
\ No newline at end of file
@@ -16,39 +16,21 @@ public class EulerStep {
 	 * @param h	Time step
 	 */
 	public static void update(ParticleSystem psystem, float t, float h) {
-		float[] state = new float[psystem.getDimension()];
-		float[] deriv = new float[psystem.getDimension()];
-		
-		psystem.getState(state);
-		psystem.getDerivative(deriv,t);
-		
-		scale(deriv,h);
-		add(state, deriv, state);
-		psystem.setState(state);
-	}
-	
-	/**
-	 * Multiplies each component of an array with a factor, i.e a[i] = h * a[i]
-	 * @param a Array which is modified
-	 * @param h Factor
-	 */
-	private static void  scale(float[] a, float h) {
-		for (int i = 0; i < a.length; i++) {
-			a[i] *= h;
-		}
-		return;
+		update(psystem, t, h, new float[psystem.getDimension()]);
 	}
 	
 	/**
-	 * Adds two array a and b component wise and stores the result on array c
-	 * @param a Input
-	 * @param b Input
-	 * @param c Result
+	 * Computes one Euler iteration for a particle system without allocating
+	 * memory
+	 * @param psystem The particle system
+	 * @param t	Start time of Euler step
+	 * @param h	Time step
+	 * @param deriv Scratch buffer with at least psystem.getDimension() entries
 	 */
-	private static void  add(float[] a, float[] b, float[] c) {
-		for (int i = 0; i < a.length; i++) {
-			c[i] = a[i] + b[i];
-		}
-		return;
+	public static void update(ParticleSystem psystem, float t, float h, float[] deriv) {
+		psystem.beginStep();
+		psystem.getDerivative(deriv,t);
+		psystem.advance(deriv, h);
+		psystem.endStep();
 	}
 }
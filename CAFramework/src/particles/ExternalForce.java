@@ -12,6 +12,8 @@ package particles;
 
 import java.util.ArrayList;
 
+import math.MathUtil;
+
 
 /**
  * Abstract class Force. 
@@ -40,4 +42,51 @@ public abstract class ExternalForce extends Force {
 			this.eval(time, particle);
 	}
 	
+	/**
+	 * Batch version of eval(float, Particle): adds the force to the particles
+	 * from .. to-1 of a particle store. The default implementation evaluates
+	 * eval(float, Particle) on a particle object for each particle. Forces 
+	 * override it with plain loops over the arrays of the store, which avoid
+	 * the call per particle and temporary vectors.
+	 * @param time
+	 * @param store Particles
+	 * @param from First particle
+	 * @param to End of range, exclusive
+	 */
+	public void eval(float time, ParticleStore store, int from, int to) {
+		Particle particle = flyweight.get();
+		for (int i = from; i < to; i++) {
+			store.load(i, particle);
+			this.eval(time, particle);
+			store.addForce(i, particle);
+		}
+	}
+	
+	/**
+	 * Called by the particle system once per force evaluation before the 
+	 * force is evaluated on any particle. Forces which depend on other 
+	 * particles build their acceleration structures here.
+	 * @param time
+	 * @param psystem
+	 */
+	public void prepare(float time, ParticleSystem psystem) {
+	}
+	
+	/**
+	 * Particle objects for the default batch evaluation, one per thread
+	 */
+	private static final ThreadLocal<Particle> flyweight = new ThreadLocal<Particle>() {
+		@Override
+		protected Particle initialValue() {
+			return new Particle();
+		}
+	};
+	
+	/**
+	 * Reciprocal of a length, lengths below MathUtil.EPS are not scaled, like in Vec3.normalize()
+	 */
+	protected static float invLength(float length) {
+		return (length < MathUtil.EPS) ? 1 : 1 / length;
+	}
+	
 }
@@ -39,6 +39,20 @@ public class FloorRepeller extends ExternalForce {
 		p.force.add(f);
 	}	
 	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] force = store.force;
+		float[] pos = store.pos;
+		float nx = normal.x, ny = normal.y, nz = normal.z;
+		for (int i = from; i < to; i++) {
+			int j = 3*i;
+			float distance = pos[j]*nx + pos[j+1]*ny + pos[j+2]*nz - d;
+			float factor = a / (b + distance);
+			force[j+1] += 0.5f * factor;
+			force[j+2] += 0.5f * factor;
+		}
+	}
+	
 }
 
 
@@ -1,13 +1,19 @@
 package particles;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import math.Vec3;
 
 public class GaussForce extends ExternalForce {
 	private Vec3 direction;
 	float maxLength;  	
-	Random rand;
+	
+	/**
+	 * Seed of the random streams of the batch evaluation, random stream of 
+	 * the evaluation per particle
+	 */
+	private long seed;
+	private SplittableRandom random;
 	
 	/**
 	 * Constructor
@@ -16,13 +22,18 @@ public class GaussForce extends ExternalForce {
 		super(p);
 		this.direction = pos;
 		this.maxLength = maxLength;
-		this.rand = new Random();
+		setSeed(ParticleRandom.nextSeed());
 	}
 	
 	public GaussForce(Vec3 pos, float maxLength) {
 		this( null, pos, maxLength);
 	}
 	
+	public void setSeed(long seed) {
+		this.seed = seed;
+		this.random = new SplittableRandom(seed);
+	}
+	
 	public void eval(float time) {
 		eval(time, p);
 	}
@@ -30,14 +41,30 @@ public class GaussForce extends ExternalForce {
 	public void eval(float time, Particle p) {
 		assert (p != null) : "Cannot evaluate force, because particle is undefined";
 		
-		float x = direction.x * (float) rand.nextGaussian();
-		float y = direction.y * (float) rand.nextGaussian();
-		float z = direction.z * (float) rand.nextGaussian();
+		float x = direction.x * ParticleRandom.nextGaussian(random);
+		float y = direction.y * ParticleRandom.nextGaussian(random);
+		float z = direction.z * ParticleRandom.nextGaussian(random);
 		
 		Vec3 v = new Vec3( x,y,z).normalize();
-		float size = rand.nextFloat() * maxLength; 
+		float size = ParticleRandom.nextFloat(random) * maxLength; 
 		v.normalize().mul(size);
 		
 		p.force.add(v);
 	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		SplittableRandom random = ParticleRandom.stream(seed, time, from);
+		float[] force = store.force;
+		for (int i = from; i < to; i++) {
+			float x = direction.x * ParticleRandom.nextGaussian(random);
+			float y = direction.y * ParticleRandom.nextGaussian(random);
+			float z = direction.z * ParticleRandom.nextGaussian(random);
+			float size = ParticleRandom.nextFloat(random) * maxLength * invLength((float) Math.sqrt(x*x + y*y + z*z));
+			int j = 3*i;
+			force[j]   += x * size;
+			force[j+1] += y * size;
+			force[j+2] += z * size;
+		}
+	}
 }
@@ -0,0 +1,96 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Greedy coloring of springs or constraints, such that no two of one color
+ * share a particle. Elements of one color can then be processed in parallel.
+ */
+final class GraphColoring {
+
+	/**
+	 * Number of colors. Elements which do not get one of them are collected
+	 * in an extra range, which has to be processed sequentially.
+	 */
+	static final int MAX_COLORS = 64;
+
+	private GraphColoring() {
+	}
+
+	/**
+	 * Each element gets the smallest color which is not used by another
+	 * element of its particles yet. Within a color the elements keep their order.
+	 * @param ids ids[k][e] is the id of the k-th particle of element e
+	 * @param count Number of elements
+	 * @param order Receives the elements ordered by color
+	 * @return Start of the ranges in order, one per color plus the range of
+	 * elements without color. The last entry is count.
+	 */
+	static int[] color(int[][] ids, int count, int[] order) {
+		int particles = 0;
+		for (int[] column: ids) {
+			for (int e = 0; e < count; e++)
+				particles = Math.max(particles, column[e] + 1);
+		}
+
+		long[] used = new long[particles];
+		int[] color = new int[count];
+		int[] start = new int[MAX_COLORS + 2];
+		for (int e = 0; e < count; e++) {
+			long taken = 0;
+			for (int[] column: ids)
+				taken |= used[column[e]];
+			int c = Long.numberOfTrailingZeros(~taken);
+			if (c < MAX_COLORS) {
+				for (int[] column: ids)
+					used[column[e]] |= 1L << c;
+			}
+			color[e] = c;
+			start[c + 1]++;
+		}
+
+		int colors = 0;
+		for (int c = 0; c < MAX_COLORS; c++) {
+			if (start[c + 1] > 0)
+				colors = c + 1;
+		}
+
+		// counting sort by color, elements without color go last
+		int[] offset = new int[MAX_COLORS + 1];
+		for (int c = 0; c < MAX_COLORS; c++)
+			offset[c + 1] = offset[c] + start[c + 1];
+		for (int e = 0; e < count; e++)
+			order[offset[color[e]]++] = e;
+
+		int[] colorStart = new int[colors + 2];
+		for (int c = 0; c < colors; c++)
+			colorStart[c + 1] = colorStart[c] + start[c + 1];
+		colorStart[colors + 1] = count;
+		return colorStart;
+	}
+
+	/**
+	 * @return new array of the same length with a[order[k]] at position k
+	 */
+	static int[] permute(int[] a, int[] order, int count) {
+		int[] b = new int[a.length];
+		for (int k = 0; k < count; k++)
+			b[k] = a[order[k]];
+		return b;
+	}
+
+	static float[] permute(float[] a, int[] order, int count) {
+		float[] b = new float[a.length];
+		for (int k = 0; k < count; k++)
+			b[k] = a[order[k]];
+		return b;
+	}
+}
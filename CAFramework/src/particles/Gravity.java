@@ -45,4 +45,18 @@ public class Gravity extends ExternalForce {
 		p.force.add(f);
 	}
 	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] force = store.force;
+		float[] mass = store.mass;
+		float gx = g.x, gy = g.y, gz = g.z;
+		for (int i = from; i < to; i++) {
+			int j = 3*i;
+			float m = mass[i];
+			force[j]   += gx * m;
+			force[j+1] += gy * m;
+			force[j+2] += gz * m;
+		}
+	}
+	
 }
@@ -0,0 +1,180 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import math.Vec3;
+
+/**
+ * Force field given by force vectors on the nodes of a regular 3D grid,
+ * which are interpolated trilinearly at the particle positions. Wind,
+ * vortices or curl noise are baked into the grid once, see
+ * GridForceFieldBuilder, so that each evaluation costs a few array reads
+ * instead of the square roots and divisions of an analytic force.
+ *
+ * Outside of the grid the force at the nearest border is continued.
+ */
+public class GridForceField extends ExternalForce {
+
+	/**
+	 * Force vectors of the nodes, x runs fastest, then y, then z
+	 */
+	private final float[] grid;
+	private final int nx;
+	private final int ny;
+	private final int nz;
+
+	/**
+	 * Position of node (0, 0, 0) and distance of neighboring nodes
+	 */
+	private final float x0;
+	private final float y0;
+	private final float z0;
+	private final float cellSize;
+	private final float invCellSize;
+
+	/**
+	 * Factor of the sampled forces
+	 */
+	private float strength;
+
+	/**
+	 * Scratch force of sample() and of the evaluation per particle, which
+	 * like the particle objects are not shared between threads
+	 */
+	private final float[] scratch = new float[3];
+
+	/**
+	 * Constructor
+	 * @param min Position of the first node
+	 * @param cellSize Distance of neighboring nodes
+	 * @param nx Number of nodes in x direction, at least 2
+	 * @param ny Number of nodes in y direction, at least 2
+	 * @param nz Number of nodes in z direction, at least 2
+	 * @param grid Force vectors of the nodes, 3*nx*ny*nz floats with x running fastest. The array is not copied.
+	 */
+	public GridForceField(Vec3 min, float cellSize, int nx, int ny, int nz, float[] grid) {
+		super(null);
+		assert (nx > 1 && ny > 1 && nz > 1) : "Grid needs at least two nodes in each direction";
+		assert (grid.length >= 3*nx*ny*nz) : "Grid array is too small";
+		this.grid = grid;
+		this.nx = nx;
+		this.ny = ny;
+		this.nz = nz;
+		this.x0 = min.x;
+		this.y0 = min.y;
+		this.z0 = min.z;
+		this.cellSize = cellSize;
+		this.invCellSize = 1 / cellSize;
+		this.strength = 1;
+	}
+
+	public void setStrength(float strength) {
+		this.strength = strength;
+	}
+
+	public float getStrength() {
+		return strength;
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @return Force at a position, interpolated between the surrounding nodes
+	 */
+	public Vec3 sample(Vec3 position) {
+		Vec3 result = new Vec3();
+		sample(position, result);
+		return result;
+	}
+
+	/**
+	 * Force at a position, without allocation
+	 * @param position
+	 * @param result Receives the force interpolated between the surrounding nodes
+	 */
+	public void sample(Vec3 position, Vec3 result) {
+		scratch[0] = scratch[1] = scratch[2] = 0;
+		sample(position.x, position.y, position.z, scratch, 0);
+		result.x = scratch[0];
+		result.y = scratch[1];
+		result.z = scratch[2];
+	}
+
+	public void eval(float time) {
+		eval(time, p);
+	}
+
+	@Override
+	public void eval(float time, Particle p) {
+		assert (p != null) : "Cannot evaluate grid force field, because particle is undefined";
+		scratch[0] = scratch[1] = scratch[2] = 0;
+		sample(p.pos.x, p.pos.y, p.pos.z, scratch, 0);
+		p.force.x += scratch[0];
+		p.force.y += scratch[1];
+		p.force.z += scratch[2];
+	}
+
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] pos = store.pos;
+		for (int i = from; i < to; i++)
+			sample(pos[3*i], pos[3*i+1], pos[3*i+2], store.force, 3*i);
+	}
+
+	/**
+	 * Adds the scaled and trilinearly interpolated force at a position to
+	 * f[j], f[j+1] and f[j+2]
+	 */
+	private void sample(float x, float y, float z, float[] f, int j) {
+		float[] grid = this.grid;
+		float inv = invCellSize;
+		float s = strength;
+		int sy = 3*nx;
+		int sz = 3*nx*ny;
+
+		float gx = clamp((x - x0) * inv, nx - 1);
+		float gy = clamp((y - y0) * inv, ny - 1);
+		float gz = clamp((z - z0) * inv, nz - 1);
+		// the last node is the upper corner of the last cell
+		int ix = Math.min((int) gx, nx - 2);
+		int iy = Math.min((int) gy, ny - 2);
+		int iz = Math.min((int) gz, nz - 2);
+		float tx = gx - ix;
+		float ty = gy - iy;
+		float tz = gz - iz;
+
+		// interpolate along x on the four edges of the cell, then along y and z
+		int n00 = 3*ix + iy*sy + iz*sz;
+		int n10 = n00 + sy;
+		int n01 = n00 + sz;
+		int n11 = n01 + sy;
+		float wy0z0 = (1-ty) * (1-tz);
+		float wy1z0 = ty * (1-tz);
+		float wy0z1 = (1-ty) * tz;
+		float wy1z1 = ty * tz;
+		for (int c = 0; c < 3; c++) {
+			float e00 = grid[n00+c] + tx * (grid[n00+3+c] - grid[n00+c]);
+			float e10 = grid[n10+c] + tx * (grid[n10+3+c] - grid[n10+c]);
+			float e01 = grid[n01+c] + tx * (grid[n01+3+c] - grid[n01+c]);
+			float e11 = grid[n11+c] + tx * (grid[n11+3+c] - grid[n11+c]);
+			f[j+c] += s * (wy0z0 * e00 + wy1z0 * e10 + wy0z1 * e01 + wy1z1 * e11);
+		}
+	}
+
+	/**
+	 * Clamps a grid coordinate to [0, max]
+	 */
+	private static float clamp(float g, float max) {
+		return (g < 0) ? 0 : (g > max) ? max : g;
+	}
+}
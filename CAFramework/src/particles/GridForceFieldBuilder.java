@@ -0,0 +1,293 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import math.Vec3;
+
+/**
+ * Bakes forces into the grid of a GridForceField. The contributions of
+ * all add methods are summed up, e.g. a constant wind, the force of a
+ * Whirl and curl noise, and getField() returns a force field of the sum.
+ *
+ * The nodes are processed in parallel on a pool, which is the common
+ * pool unless set otherwise.
+ */
+public class GridForceFieldBuilder {
+
+	/**
+	 * Number of nodes below which a range is not split further
+	 */
+	private static final int GRAIN = 4096;
+
+	private static final int FORCE = 0;
+	private static final int POTENTIAL = 1;
+	private static final int CURL = 2;
+
+	private final Vec3 min;
+	private final float cellSize;
+	private final int nx;
+	private final int ny;
+	private final int nz;
+	private float[] grid;
+
+	private ForkJoinPool pool;
+
+	/**
+	 * State of the current pass
+	 */
+	private ExternalForce force;
+	private float time;
+	private ParticleStore nodes;
+	private float[] potential;
+	private float frequency;
+	private float amplitude;
+	private long seed;
+
+	/**
+	 * Constructor, the grid covers the box from min to max
+	 * @param min Minimum corner of the box
+	 * @param max Maximum corner of the box
+	 * @param cellSize Distance of neighboring nodes
+	 */
+	public GridForceFieldBuilder(Vec3 min, Vec3 max, float cellSize) {
+		assert (cellSize > 0) : "Cell size must be positive";
+		this.min = new Vec3(min);
+		this.cellSize = cellSize;
+		this.nx = nodeCount(max.x - min.x);
+		this.ny = nodeCount(max.y - min.y);
+		this.nz = nodeCount(max.z - min.z);
+		this.grid = new float[3*nx*ny*nz];
+		this.pool = ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * @param pool Pool of the bake, null to bake sequentially
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Adds a constant force, e.g. wind
+	 */
+	public void addUniform(Vec3 force) {
+		for (int j = 0; j < grid.length; j += 3) {
+			grid[j]   += force.x;
+			grid[j+1] += force.y;
+			grid[j+2] += force.z;
+		}
+	}
+
+	/**
+	 * Adds the force on a particle of mass 1 at rest at each node. Only forces
+	 * which depend on the position and time of a particle, like Whirl, can be
+	 * baked, forces which depend on other particles are not prepared.
+	 * @param force Force to bake
+	 * @param time Time of the evaluation
+	 */
+	public void addForce(ExternalForce force, float time) {
+		int count = nx*ny*nz;
+		ParticleStore nodes = new ParticleStore(count);
+		for (int k = 0; k < nz; k++) {
+			for (int j = 0; j < ny; j++) {
+				for (int i = 0; i < nx; i++)
+					nodes.add(1, min.x + i*cellSize, min.y + j*cellSize, min.z + k*cellSize, time, Float.POSITIVE_INFINITY);
+			}
+		}
+		this.force = force;
+		this.time = time;
+		this.nodes = nodes;
+		run(FORCE, count);
+		this.force = null;
+		this.nodes = null;
+	}
+
+	/**
+	 * Adds curl noise, the curl of a smooth random vector potential. The
+	 * force is free of divergence, so that particles swirl without gathering
+	 * in sinks.
+	 * @param frequency Number of noise features per unit of length
+	 * @param amplitude Typical magnitude of the force
+	 * @param seed Seed of the noise
+	 */
+	public void addCurlNoise(float frequency, float amplitude, long seed) {
+		int count = nx*ny*nz;
+		this.potential = new float[3*count];
+		this.frequency = frequency;
+		this.amplitude = amplitude;
+		this.seed = seed;
+		run(POTENTIAL, count);
+		run(CURL, count);
+		this.potential = null;
+	}
+
+	/**
+	 * @return Force field of the grid baked so far. Further bakes do not change the field.
+	 */
+	public GridForceField getField() {
+		return new GridForceField(min, cellSize, nx, ny, nz, grid.clone());
+	}
+
+	public int getNodeCount(int axis) {
+		return (axis == 0) ? nx : (axis == 1) ? ny : nz;
+	}
+
+	private int nodeCount(float extent) {
+		return Math.max(2, (int) Math.ceil(extent / cellSize) + 1);
+	}
+
+	private void run(int pass, int count) {
+		if (pool != null && count > GRAIN)
+			pool.invoke(new NodeTask(pass, 0, count));
+		else
+			process(pass, 0, count);
+	}
+
+	/**
+	 * Processes the nodes from .. to-1 in one pass
+	 */
+	private void process(int pass, int from, int to) {
+		switch (pass) {
+		case FORCE:
+			force.eval(time, nodes, from, to);
+			for (int j = 3*from; j < 3*to; j++)
+				grid[j] += nodes.force[j];
+			break;
+		case POTENTIAL:
+			// dividing by the frequency keeps the magnitude of the curl at the amplitude
+			float scale = amplitude / frequency;
+			for (int n = from; n < to; n++) {
+				float x = (n % nx) * cellSize * frequency;
+				float y = (n / nx % ny) * cellSize * frequency;
+				float z = (n / (nx*ny)) * cellSize * frequency;
+				for (int c = 0; c < 3; c++)
+					potential[3*n+c] = scale * noise(x, y, z, c);
+			}
+			break;
+		case CURL:
+			for (int n = from; n < to; n++) {
+				int i = n % nx;
+				int j = n / nx % ny;
+				int k = n / (nx*ny);
+				grid[3*n]   += derivative(i, j, k, 1, 2) - derivative(i, j, k, 2, 1);
+				grid[3*n+1] += derivative(i, j, k, 2, 0) - derivative(i, j, k, 0, 2);
+				grid[3*n+2] += derivative(i, j, k, 0, 1) - derivative(i, j, k, 1, 0);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Derivative of a component of the potential along an axis at a node,
+	 * central differences inside and one sided differences at the border
+	 */
+	private float derivative(int i, int j, int k, int axis, int component) {
+		int index = (axis == 0) ? i : (axis == 1) ? j : k;
+		int stride = (axis == 0) ? 1 : (axis == 1) ? nx : nx*ny;
+		int lo = Math.max(index - 1, 0);
+		int hi = Math.min(index + 1, getNodeCount(axis) - 1);
+		int node = i + nx * (j + ny * k);
+		float a = potential[3*(node + (lo - index) * stride) + component];
+		float b = potential[3*(node + (hi - index) * stride) + component];
+		return (b - a) / ((hi - lo) * cellSize);
+	}
+
+	/**
+	 * Gradient noise in about [-1, 1]: random gradients at integer points,
+	 * interpolated with quintic weights like Perlin's improved noise
+	 */
+	private float noise(float x, float y, float z, int component) {
+		int ix = (int) Math.floor(x);
+		int iy = (int) Math.floor(y);
+		int iz = (int) Math.floor(z);
+		float fx = x - ix;
+		float fy = y - iy;
+		float fz = z - iz;
+		float tx = fade(fx);
+		float ty = fade(fy);
+		float tz = fade(fz);
+
+		float v00 = lerp(tx, gradient(ix, iy, iz, component, fx, fy, fz),
+				gradient(ix+1, iy, iz, component, fx-1, fy, fz));
+		float v10 = lerp(tx, gradient(ix, iy+1, iz, component, fx, fy-1, fz),
+				gradient(ix+1, iy+1, iz, component, fx-1, fy-1, fz));
+		float v01 = lerp(tx, gradient(ix, iy, iz+1, component, fx, fy, fz-1),
+				gradient(ix+1, iy, iz+1, component, fx-1, fy, fz-1));
+		float v11 = lerp(tx, gradient(ix, iy+1, iz+1, component, fx, fy-1, fz-1),
+				gradient(ix+1, iy+1, iz+1, component, fx-1, fy-1, fz-1));
+		return lerp(tz, lerp(ty, v00, v10), lerp(ty, v01, v11));
+	}
+
+	/**
+	 * Dot product of the random gradient of an integer point, one of the
+	 * twelve edge directions of a cube, with the offset (dx, dy, dz) to the point.
+	 * The gradient is mixed from the seed like in SplittableRandom.
+	 */
+	private float gradient(int x, int y, int z, int component, float dx, float dy, float dz) {
+		long h = seed + x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL
+				+ z * 0x165667B19E3779F9L + component * 0x27D4EB2F165667C5L;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		switch ((int) ((h >>> 32) % 12)) {
+		case 0:  return  dx + dy;
+		case 1:  return -dx + dy;
+		case 2:  return  dx - dy;
+		case 3:  return -dx - dy;
+		case 4:  return  dx + dz;
+		case 5:  return -dx + dz;
+		case 6:  return  dx - dz;
+		case 7:  return -dx - dz;
+		case 8:  return  dy + dz;
+		case 9:  return -dy + dz;
+		case 10: return  dy - dz;
+		default: return -dy - dz;
+		}
+	}
+
+	private static float fade(float t) {
+		return t * t * t * (t * (t * 6 - 15) + 10);
+	}
+
+	private static float lerp(float t, float a, float b) {
+		return a + t * (b - a);
+	}
+
+	/**
+	 * Processes a range of nodes in one pass
+	 */
+	private class NodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int pass;
+		private final int from;
+		private final int to;
+
+		NodeTask(int pass, int from, int to) {
+			this.pass = pass;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= GRAIN) {
+				process(pass, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new NodeTask(pass, from, mid), new NodeTask(pass, mid, to));
+		}
+	}
+}
@@ -19,11 +19,11 @@ public class HeunMethod extends DifferentialSolver {
 	@Override
 	public void solve (ParticleSystem psystem, float tstart, float tend) {
 
+		evaluations = 0;
 		int dimension = psystem.getDimension();
-		float[] state = new float[dimension];
-		float[] deriv = new float[dimension];
-		float[] intermediateState = new float[dimension];
-		float[] intermediateDeriv = new float[dimension];
+		float[] state = buffer(0, dimension);
+		float[] deriv = buffer(1, dimension);
+		float[] intermediateDeriv = buffer(2, dimension);
 		
 		float deltaTime = tend - tstart;		
 		float h = deltaTime / steps;
@@ -31,18 +31,16 @@ public class HeunMethod extends DifferentialSolver {
 		for (int i = 0 ; i < steps; i++) {
 			float t = tstart + h*i;
 			
+			psystem.beginStep();
 			psystem.getState(state);
-			psystem.getDerivative(deriv,t);
+			evaluate(psystem, deriv, t);
 			
-			scale(deriv,h);
-			add(state, deriv, intermediateState);
-			psystem.setState(intermediateState);
-			psystem.getDerivative(intermediateDeriv,t+h);
-			scale(intermediateDeriv, h);
-			add(deriv, intermediateDeriv, deriv);
-			scale(deriv, 0.5f);
-			add(state, deriv, state);
+			psystem.advance(deriv, h);
+			evaluate(psystem, intermediateDeriv, t+h);
+			add(deriv, intermediateDeriv, deriv, dimension);
 			psystem.setState(state);
+			psystem.advance(deriv, 0.5f*h);
+			psystem.endStep();
 		}
 	}	
 }
@@ -0,0 +1,247 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import math.ConjugateGradient;
+import math.SparseMatrix;
+
+/**
+ * Linearly implicit (backward) Euler method for stiff spring systems after
+ * Baraff and Witkin. All forces which implement PairForce, i.e. Spring and
+ * DampedSpring, are treated implicitly, all other forces explicitly. Each step
+ * solves
+ *
+ * (M - h df/dv - h^2 df/dx) dv = h (f + h df/dx v)
+ *
+ * for the change of velocity dv with a preconditioned conjugate gradient
+ * method. The matrix is stored in CSR format, its structure is only rebuilt
+ * when particles or springs change. The conjugate gradient method requires a
+ * symmetric matrix, i.e. springs have to be mutual like in TestSpring, where
+ * each pair of particles is connected by a spring in both directions.
+ */
+public class ImplicitEulerMethod extends DifferentialSolver {
+
+	private ConjugateGradient cg;
+
+	private SparseMatrix matrix;
+
+	/**
+	 * Implicit forces of the particle system and the indices of their particles
+	 */
+	private ArrayList<PairForce> springs;
+	private int[] springRow;
+	private int[] springCol;
+
+	/**
+	 * Index of the first value of the diagonal block and the off diagonal
+	 * block of each spring in the row of its particle
+	 */
+	private int[] diagBlock;
+	private int[] offBlock;
+
+	/**
+	 * Index of the first value of the diagonal block in the row of each particle
+	 */
+	private int[] particleDiag;
+
+	/**
+	 * Number of particles the structure of the matrix has been built for
+	 */
+	private int particleCount;
+
+	private float[] dfdx;
+	private float[] dfdv;
+
+	/**
+	 * Constructor
+	 * @param steps Number of steps per update
+	 * @param maxIterations Maximum number of conjugate gradient iterations per step
+	 * @param tolerance Relative residual at which the conjugate gradient method stops
+	 */
+	public ImplicitEulerMethod (int steps, int maxIterations, float tolerance) {
+		super(steps);
+		this.cg = new ConjugateGradient(maxIterations, tolerance);
+		this.matrix = null;
+		this.springs = new ArrayList<PairForce>();
+		this.springRow = new int[0];
+		this.springCol = new int[0];
+		this.particleCount = -1;
+		this.dfdx = new float[9];
+		this.dfdv = new float[9];
+	}
+
+	public ImplicitEulerMethod (int steps) {
+		this(steps, 100, 1e-4f);
+	}
+
+	@Override
+	public void solve (ParticleSystem psystem, float tstart, float tend) {
+
+		evaluations = 0;
+		int dimension = psystem.getDimension();
+		int n = dimension / 2;
+		float[] deriv = buffer(0, dimension);
+		float[] b = buffer(1, n);
+		float[] dv = buffer(2, n);
+
+		collectSprings(psystem);
+		if (structureChanged(psystem.getStore().size()))
+			buildStructure(psystem.getStore().size());
+
+		float deltaTime = tend - tstart;
+		float h = deltaTime / steps;
+
+		for (int i = 0 ; i < steps; i++) {
+			float t = tstart + h*i;
+			psystem.beginStep();
+			evaluate(psystem, deriv, t);
+			assemble(psystem.getStore(), h, b);
+
+			for (int j = 0; j < n; j++)
+				dv[j] = h * deriv[n+j];
+			cg.solve(matrix, b, dv);
+
+			// v = v + dv, x = x + h * v
+			for (int j = 0; j < n; j++) {
+				deriv[j] += dv[j];
+				deriv[n+j] = dv[j];
+			}
+			psystem.advanceVelocities(deriv, 1);
+			psystem.advancePositions(deriv, h);
+			psystem.endStep();
+		}
+	}
+
+	/**
+	 * @return number of conjugate gradient iterations of the last step
+	 */
+	public int getIterations() {
+		return cg.getIterations();
+	}
+
+	private void collectSprings(ParticleSystem psystem) {
+		springs.clear();
+		if (psystem.getForces() == null)
+			return;
+
+		for (Force force: psystem.getForces()) {
+			if (force instanceof PairForce) {
+				PairForce spring = (PairForce) force;
+				if (spring.getParticle().index >= 0 && spring.getOtherParticle().index >= 0)
+					springs.add(spring);
+			}
+		}
+	}
+
+	private boolean structureChanged(int particles) {
+		if (matrix == null || particles != particleCount || springs.size() != springRow.length)
+			return true;
+
+		for (int s = 0; s < springs.size(); s++) {
+			PairForce spring = springs.get(s);
+			if (spring.getParticle().index != springRow[s] || spring.getOtherParticle().index != springCol[s])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Builds the CSR structure with one 3x3 block per particle on the diagonal
+	 * and one block for each pair of particles connected by a spring
+	 */
+	private void buildStructure(int particles) {
+		int count = springs.size();
+		springRow = new int[count];
+		springCol = new int[count];
+		diagBlock = new int[count];
+		offBlock = new int[count];
+		particleCount = particles;
+
+		ArrayList<TreeSet<Integer>> columns = new ArrayList<TreeSet<Integer>>(particles);
+		for (int i = 0; i < particles; i++) {
+			TreeSet<Integer> set = new TreeSet<Integer>();
+			set.add(i);
+			columns.add(set);
+		}
+		for (int s = 0; s < count; s++) {
+			springRow[s] = springs.get(s).getParticle().index;
+			springCol[s] = springs.get(s).getOtherParticle().index;
+			columns.get(springRow[s]).add(springCol[s]);
+			columns.get(springCol[s]).add(springRow[s]);
+		}
+
+		int size = 3 * particles;
+		int[] rowPtr = new int[size + 1];
+		for (int i = 0; i < particles; i++) {
+			int width = 3 * columns.get(i).size();
+			for (int r = 0; r < 3; r++)
+				rowPtr[3*i + r + 1] = rowPtr[3*i + r] + width;
+		}
+
+		int[] colIdx = new int[rowPtr[size]];
+		for (int i = 0; i < particles; i++) {
+			for (int r = 0; r < 3; r++) {
+				int k = rowPtr[3*i + r];
+				for (int block: columns.get(i)) {
+					colIdx[k++] = 3*block;
+					colIdx[k++] = 3*block + 1;
+					colIdx[k++] = 3*block + 2;
+				}
+			}
+		}
+		matrix = new SparseMatrix(size, rowPtr, colIdx);
+
+		particleDiag = new int[particles];
+		for (int i = 0; i < particles; i++)
+			particleDiag[i] = 3 * columns.get(i).headSet(i).size();
+		for (int s = 0; s < count; s++) {
+			diagBlock[s] = 3 * columns.get(springRow[s]).headSet(springRow[s]).size();
+			offBlock[s] = 3 * columns.get(springRow[s]).headSet(springCol[s]).size();
+		}
+	}
+
+	/**
+	 * Fills the matrix M - h df/dv - h^2 df/dx and the right hand side
+	 * h (f + h df/dx v) from the current forces and spring derivatives
+	 */
+	private void assemble(ParticleStore store, float h, float[] b) {
+		matrix.clear();
+		int particles = store.size();
+		for (int i = 0; i < particles; i++) {
+			for (int r = 0; r < 3; r++) {
+				int row = 3*i + r;
+				matrix.add(matrix.rowStart(row) + particleDiag[i] + r, store.mass[i]);
+				b[row] = h * store.force[row];
+			}
+		}
+
+		for (int s = 0; s < springs.size(); s++) {
+			springs.get(s).jacobian(dfdx, dfdv);
+			int i = springRow[s];
+			int k = springCol[s];
+			for (int r = 0; r < 3; r++) {
+				int row = 3*i + r;
+				int start = matrix.rowStart(row);
+				float kv = 0;
+				for (int c = 0; c < 3; c++) {
+					float a = -h * dfdv[3*r+c] - h * h * dfdx[3*r+c];
+					matrix.add(start + diagBlock[s] + c, a);
+					matrix.add(start + offBlock[s] + c, -a);
+					kv += dfdx[3*r+c] * (store.vel[3*i+c] - store.vel[3*k+c]);
+				}
+				b[row] += h * h * kv;
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+
+import math.Mat4;
+import scenegraph.AbstNode;
+import scenegraph.AbstSpatial;
+import scenegraph.Group;
+import scenegraph.TriangleMesh;
+
+/**
+ * Collision of particles with the triangle meshes of a scene graph node, e.g.
+ * a mesh loaded with Loader.loadMesh(). The path of each particle during a 
+ * solver step is tested against a TriangleBVH of all triangles. A particle
+ * which crosses a triangle is set back to the point of impact, slightly in 
+ * front of the surface, and its velocity is reflected: the normal part is 
+ * scaled by -restitution, the tangential part by 1 - friction.
+ *
+ * The triangles are transformed with the local transformations of the node
+ * and its descendants. After the node has moved, update() refits the BVH.
+ */
+public class MeshCollider implements Collider {
+	
+	private AbstNode node;
+	private float restitution;
+	private float friction;
+	
+	/**
+	 * Distance to the surface at which particles are placed after a collision
+	 */
+	private float thickness;
+	
+	private float[] vertices;
+	private int vertexCount;
+	private int[] indices;
+	private int indexCount;
+	private TriangleBVH bvh;
+	
+	/**
+	 * Constructor
+	 * @param node Triangle mesh or group with triangle meshes
+	 * @param restitution Fraction of the normal velocity which is kept after a collision
+	 * @param friction Fraction of the tangential velocity which is lost in a collision
+	 */
+	public MeshCollider(AbstNode node, float restitution, float friction) {
+		this.node = node;
+		this.restitution = restitution;
+		this.friction = friction;
+		this.thickness = 1e-3f;
+		this.vertices = new float[0];
+		this.indices = new int[0];
+		collect();
+		// the BVH shares the vertex buffer, which update() overwrites in place
+		this.bvh = new TriangleBVH(vertices, Arrays.copyOf(indices, indexCount));
+	}
+	
+	public void setThickness(float thickness) {
+		this.thickness = thickness;
+	}
+	
+	public TriangleBVH getBVH() {
+		return bvh;
+	}
+	
+	/**
+	 * Reads the current transformations and vertices of the meshes and refits
+	 * the BVH. The number of triangles must not change, so the vertices are
+	 * written into the same buffer.
+	 */
+	public void update() {
+		collect();
+		bvh.refit(vertices);
+	}
+	
+	@Override
+	public void collide(ParticleStore store, float[] previous, int from, int to) {
+		float[] pos = store.pos;
+		float[] vel = store.vel;
+		float[] hit = new float[4];
+		int[] stack = new int[TriangleBVH.MAX_DEPTH];
+		
+		for (int i = from; i < to; i++) {
+			int j = 3*i;
+			float ox = previous[j], oy = previous[j+1], oz = previous[j+2];
+			float dx = pos[j] - ox, dy = pos[j+1] - oy, dz = pos[j+2] - oz;
+			if (bvh.intersect(ox, oy, oz, dx, dy, dz, hit, stack) < 0)
+				continue;
+			
+			// normal towards the side the particle came from
+			float t = hit[0];
+			float nx = hit[1], ny = hit[2], nz = hit[3];
+			float length = (float) Math.sqrt(nx*nx + ny*ny + nz*nz);
+			if (length == 0)
+				continue;
+			if (nx*dx + ny*dy + nz*dz > 0)
+				length = -length;
+			nx /= length;
+			ny /= length;
+			nz /= length;
+			
+			pos[j]   = ox + t*dx + thickness*nx;
+			pos[j+1] = oy + t*dy + thickness*ny;
+			pos[j+2] = oz + t*dz + thickness*nz;
+			
+			float vn = vel[j]*nx + vel[j+1]*ny + vel[j+2]*nz;
+			if (vn < 0) {
+				float tx = vel[j] - vn*nx, ty = vel[j+1] - vn*ny, tz = vel[j+2] - vn*nz;
+				vel[j]   = (1 - friction) * tx - restitution * vn * nx;
+				vel[j+1] = (1 - friction) * ty - restitution * vn * ny;
+				vel[j+2] = (1 - friction) * tz - restitution * vn * nz;
+			}
+		}
+	}
+	
+	/**
+	 * Gathers the transformed vertices and the indices of all triangle meshes
+	 */
+	private void collect() {
+		vertexCount = 0;
+		indexCount = 0;
+		collect(node, new Mat4());
+	}
+	
+	private void collect(AbstNode current, Mat4 parent) {
+		Mat4 transform = parent;
+		if (current instanceof AbstSpatial) {
+			AbstSpatial spatial = (AbstSpatial) current;
+			spatial.updateTransform();
+			transform = Mat4.mul(parent, spatial.getLocalTransform());
+		}
+		
+		if (current instanceof TriangleMesh) {
+			TriangleMesh mesh = (TriangleMesh) current;
+			int base = vertexCount;
+			float[] data = mesh.vertices().data();
+			int count = mesh.numVertices();
+			vertices = ensure(vertices, 3*(vertexCount + count));
+			for (int v = 0; v < count; v++) {
+				float x = data[3*v], y = data[3*v+1], z = data[3*v+2];
+				int p = 3*vertexCount++;
+				vertices[p]   = transform.m00*x + transform.m01*y + transform.m02*z + transform.m03;
+				vertices[p+1] = transform.m10*x + transform.m11*y + transform.m12*z + transform.m13;
+				vertices[p+2] = transform.m20*x + transform.m21*y + transform.m22*z + transform.m23;
+			}
+			int[] meshIndices = mesh.triangleIndices();
+			int triangleIndices = 3 * mesh.numTriangles();
+			if (indices.length < indexCount + triangleIndices)
+				indices = Arrays.copyOf(indices, indexCount + triangleIndices);
+			for (int k = 0; k < triangleIndices; k++)
+				indices[indexCount++] = base + meshIndices[k];
+		}
+		else if (current instanceof Group && ((Group) current).getChildren() != null) {
+			for (AbstNode child: ((Group) current).getChildren())
+				collect(child, transform);
+		}
+	}
+	
+	private static float[] ensure(float[] array, int length) {
+		return (array.length < length) ? Arrays.copyOf(array, Math.max(length, 2*array.length)) : array;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Mutual gravitation of all particles of a system. The octree of a 
+ * BarnesHutTree is rebuilt before each evaluation, far away groups of 
+ * particles act through their center of mass. This reduces the cost from 
+ * O(n^2) to O(n log n). The opening angle theta trades accuracy for speed: 
+ * 0 gives the exact sum, 0.5 to 1 are usual values.
+ */
+public class NBodyGravity extends ExternalForce {
+	
+	private float gravitation;
+	private float theta;
+	private float softening;
+	
+	private BarnesHutTree tree;
+	
+	/**
+	 * Scratch buffers of the evaluation per particle, the batch evaluation 
+	 * uses its own per chunk
+	 */
+	private final float[] field = new float[3];
+	private final int[] stack = new int[BarnesHutTree.stackSize()];
+	
+	/**
+	 * Constructor
+	 * @param gravitation Gravitational constant
+	 * @param theta Opening angle
+	 * @param softening Distance which is added to avoid infinite forces between close particles
+	 */
+	public NBodyGravity(float gravitation, float theta, float softening) {
+		super(null);
+		this.gravitation = gravitation;
+		this.theta = theta;
+		this.softening = softening;
+		this.tree = new BarnesHutTree();
+	}
+	
+	public float getTheta() {
+		return theta;
+	}
+	
+	public void setTheta(float theta) {
+		this.theta = theta;
+	}
+	
+	public BarnesHutTree getTree() {
+		return tree;
+	}
+	
+	@Override
+	public void prepare(float time, ParticleSystem psystem) {
+		tree.build(psystem.getStore(), psystem.getPool());
+	}
+	
+	public void eval(float time) {
+		if (p != null)
+			eval(time, p);
+	}
+	
+	public void eval(float time, Particle p) {
+		assert (p != null) : "Cannot evaluate NBodyGravity, because particle is undefined";
+		
+		field[0] = field[1] = field[2] = 0;
+		tree.field(p.pos.x, p.pos.y, p.pos.z, p.index, theta, softening, field, stack);
+		float s = gravitation * p.mass;
+		p.force.x += s * field[0];
+		p.force.y += s * field[1];
+		p.force.z += s * field[2];
+	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] field = new float[3];
+		int[] stack = new int[BarnesHutTree.stackSize()];
+		float[] pos = store.pos;
+		float[] force = store.force;
+		for (int i = from; i < to; i++) {
+			int j = 3*i;
+			field[0] = field[1] = field[2] = 0;
+			tree.field(pos[j], pos[j+1], pos[j+2], i, theta, softening, field, stack);
+			float s = gravitation * store.mass[i];
+			force[j]   += s * field[0];
+			force[j+1] += s * field[1];
+			force[j+2] += s * field[2];
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Base class of short range forces between the particles of a system. The
+ * neighbors within the radius of the force are found with a spatial hash,
+ * which is rebuilt before each force evaluation. Each neighbor j of particle i
+ * is passed to visit(), which adds its contribution to the force of particle i
+ * only, so chunks of particles can be evaluated in parallel.
+ */
+public abstract class NeighborForce extends ExternalForce implements NeighborVisitor {
+
+	protected float radius;
+	protected float strength;
+	
+	protected SpatialHash hash;
+	
+	/**
+	 * Store of the last preparation
+	 */
+	protected ParticleStore store;
+	
+	/**
+	 * Constructor
+	 * @param radius Range of the force
+	 * @param strength
+	 */
+	public NeighborForce(float radius, float strength) {
+		super(null);
+		this.radius = radius;
+		this.strength = strength;
+		this.hash = new SpatialHash(radius);
+		this.store = null;
+	}
+	
+	public SpatialHash getHash() {
+		return hash;
+	}
+	
+	@Override
+	public void prepare(float time, ParticleSystem psystem) {
+		store = psystem.getStore();
+		hash.build(store, psystem.getPool());
+	}
+	
+	public void eval(float time) {
+		if (p != null)
+			eval(time, p);
+	}
+	
+	/**
+	 * Adds the force to a particle of the prepared store. The particle has
+	 * to be bound to the store.
+	 */
+	public void eval(float time, Particle p) {
+		assert (p != null && p.index >= 0) : "Cannot evaluate force, because particle is not part of the particle system";
+		
+		hash.forEachNeighbor(p.index, radius, this);
+	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		for (int i = from; i < to; i++)
+			hash.forEachNeighbor(i, radius, this);
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Receives the neighbors found by a SpatialHash query
+ */
+public interface NeighborVisitor {
+	
+	/**
+	 * @param i Particle of the query, -1 for queries around a point
+	 * @param j Neighbor
+	 * @param dx Difference vector from the query position to the neighbor
+	 * @param dy
+	 * @param dz
+	 * @param distanceSquared Squared length of the difference vector
+	 */
+	void visit(int i, int j, float dx, float dy, float dz, float distanceSquared);
+}
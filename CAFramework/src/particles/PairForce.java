@@ -0,0 +1,38 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Force on one particle, which depends on a second particle only through the 
+ * differences of their positions and velocities, like a spring. Implicit 
+ * solvers use the derivatives of such forces.
+ */
+public interface PairForce {
+	
+	/**
+	 * @return particle on which the force acts
+	 */
+	Particle getParticle();
+	
+	/**
+	 * @return particle which exerts the force
+	 */
+	Particle getOtherParticle();
+	
+	/**
+	 * Computes the derivatives of the force with respect to the position and 
+	 * the velocity of getParticle() as row major 3x3 matrices. The derivatives 
+	 * with respect to the other particle are the negated matrices.
+	 * @param dfdx Receives the derivative with respect to the position
+	 * @param dfdv Receives the derivative with respect to the velocity
+	 */
+	void jacobian(float[] dfdx, float[] dfdv);
+}
@@ -15,6 +15,9 @@ import math.Vec3;
 
 /**
  * Class Particle, 
+ * Once a particle has been passed to a ParticleSystem, its data lives in the
+ * ParticleStore of the system and the particle object is a view onto it, which
+ * is kept up to date by the particle system.
  * @author Stefan
  *
  */
@@ -27,6 +30,11 @@ public class Particle {
 	public float lifespan;
 	public float birthtime;
 	
+	/**
+	 * Index of the particle in the ParticleStore it is bound to, -1 if unbound
+	 */
+	int index = -1;
+	
 	public Particle() {
 		this.mass = 1.0f;
 		this.pos = new Vec3();
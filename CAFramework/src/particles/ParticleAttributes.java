@@ -0,0 +1,129 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.nio.FloatBuffer;
+
+import math.Vec4;
+import util.PositionBuffer;
+
+/**
+ * Attributes of particles for rendering: color and point size change
+ * linearly over the normalized age of a particle, which is 0 at its birth and
+ * 1 at the end of its lifespan. Particles of infinite lifespan keep age 0.
+ * If the store has attributes, see ParticleStore.enableAttributes(), the
+ * color and point size of each particle are multiplied with the ramps.
+ *
+ * write() packs positions and attributes interleaved in the layout of
+ * PositionBuffer.ATTRIBUTES, in the same pass in which the positions are
+ * written.
+ */
+public class ParticleAttributes {
+
+	private static final int STRIDE = PositionBuffer.ATTRIBUTES;
+
+	private Vec4 startColor;
+	private Vec4 endColor;
+	private float startSize;
+	private float endSize;
+
+	/**
+	 * Constructor, white particles of point size factor 1
+	 */
+	public ParticleAttributes() {
+		this.startColor = new Vec4(1, 1, 1, 1);
+		this.endColor = new Vec4(1, 1, 1, 1);
+		this.startSize = 1;
+		this.endSize = 1;
+	}
+
+	/**
+	 * @param start Color at birth
+	 * @param end Color at the end of the lifespan
+	 */
+	public void setColorRamp(Vec4 start, Vec4 end) {
+		this.startColor = new Vec4(start);
+		this.endColor = new Vec4(end);
+	}
+
+	/**
+	 * @param start Point size factor at birth
+	 * @param end Point size factor at the end of the lifespan
+	 */
+	public void setSizeRamp(float start, float end) {
+		this.startSize = start;
+		this.endSize = end;
+	}
+
+	/**
+	 * Writes x, y, z, r, g, b, a, point size and normalized age of all particles
+	 * @param store Particles
+	 * @param time Current time, for the age
+	 * @param dst Buffer with room for STRIDE*size floats from its position
+	 * @param previous Positions before the last step in the layout of the
+	 * store, null to write the current positions
+	 * @param alpha Interpolation factor between previous and current positions
+	 */
+	public void write(ParticleStore store, float time, FloatBuffer dst, float[] previous, float alpha) {
+		float[] pos = store.pos;
+		float[] birthtime = store.birthtime;
+		float[] lifespan = store.lifespan;
+		float[] color = store.color;
+		float[] pointSize = store.pointSize;
+
+		float dr = endColor.x - startColor.x;
+		float dg = endColor.y - startColor.y;
+		float db = endColor.z - startColor.z;
+		float da = endColor.w - startColor.w;
+		float ds = endSize - startSize;
+
+		int offset = dst.position();
+		int n = store.size();
+		for (int i = 0; i < n; i++) {
+			int j = 3*i;
+			int k = offset + STRIDE*i;
+			if (previous == null) {
+				dst.put(k,   pos[j]);
+				dst.put(k+1, pos[j+1]);
+				dst.put(k+2, pos[j+2]);
+			}
+			else {
+				dst.put(k,   previous[j]   + alpha * (pos[j]   - previous[j]));
+				dst.put(k+1, previous[j+1] + alpha * (pos[j+1] - previous[j+1]));
+				dst.put(k+2, previous[j+2] + alpha * (pos[j+2] - previous[j+2]));
+			}
+
+			float age = 0;
+			if (lifespan[i] != Float.POSITIVE_INFINITY && lifespan[i] > 0)
+				age = Math.min(1, Math.max(0, (time - birthtime[i]) / lifespan[i]));
+
+			float r = startColor.x + age * dr;
+			float g = startColor.y + age * dg;
+			float b = startColor.z + age * db;
+			float a = startColor.w + age * da;
+			float size = startSize + age * ds;
+			if (color != null) {
+				r *= color[4*i];
+				g *= color[4*i+1];
+				b *= color[4*i+2];
+				a *= color[4*i+3];
+				size *= pointSize[i];
+			}
+			dst.put(k+3, r);
+			dst.put(k+4, g);
+			dst.put(k+5, b);
+			dst.put(k+6, a);
+			dst.put(k+7, size);
+			dst.put(k+8, age);
+		}
+		dst.position(offset + STRIDE*n);
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import math.MathUtil;
+
+/**
+ * Pulls neighboring particles together. The force vanishes at contact and at
+ * the radius and reaches its maximum strength at half the radius, so it is 
+ * usually combined with a ParticleRepulsion of shorter range.
+ */
+public class ParticleCohesion extends NeighborForce {
+
+	public ParticleCohesion(float radius, float strength) {
+		super(radius, strength);
+	}
+	
+	@Override
+	public void visit(int i, int j, float dx, float dy, float dz, float distanceSquared) {
+		float distance = (float) Math.sqrt(distanceSquared);
+		if (distance < MathUtil.EPS)
+			return;
+		
+		float s = distance / radius;
+		float f = 4 * strength * s * (1 - s) / distance;
+		float[] force = store.force;
+		force[3*i]   += f * dx;
+		force[3*i+1] += f * dy;
+		force[3*i+2] += f * dz;
+	}
+}
@@ -10,9 +10,12 @@
 
 package particles;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 import scenegraph.ParticleGroup;
+import util.PositionBuffer;
 
 import animation.AbstController;
 
@@ -43,6 +46,59 @@ public class ParticleController extends AbstController {
 	
 	private ParticleGroup pgroup; 
 	
+	/**
+	 * Positions shared with the particle group
+	 */
+	private PositionBuffer positions;
+	
+	/**
+	 * Write the positions after each update, set if they are rendered
+	 * by the particle group or merged by a ParticleWorld
+	 */
+	private boolean sharePositions;
+	
+	/**
+	 * Fixed time step, 0 to integrate from the last to the current update time
+	 */
+	private float fixedStep;
+	
+	/**
+	 * Maximum number of fixed steps per update. Time beyond is dropped, so 
+	 * the simulation slows down instead of falling further behind.
+	 */
+	private int maxSubsteps;
+	
+	/**
+	 * Time which has passed, but has not been simulated yet
+	 */
+	private float accumulator;
+	
+	/**
+	 * Time up to which the particle system has been simulated in fixed step mode
+	 */
+	private float simulatedTime;
+	
+	/**
+	 * Positions before the last fixed step, for interpolation
+	 */
+	private float[] previousPos;
+	private int previousSize;
+	
+	/**
+	 * Level of detail policy, null if all particles are integrated in every step
+	 */
+	private ParticleLOD lod;
+	
+	/**
+	 * Records the particles after each update, null if nothing is recorded
+	 */
+	private ParticleRecorder recorder;
+	
+	/**
+	 * Attributes written with the positions, null for positions only
+	 */
+	private ParticleAttributes attributes;
+	
 	/**
 	 * Constructor of class. 
 	 * @param psystem
@@ -55,7 +111,15 @@ public class ParticleController extends AbstController {
 		this.psolver = solver;
 		this.emitter = null;
 		this.pgroup = null; 
+		this.positions = new PositionBuffer();
+		this.sharePositions = false;
 		this.lastTime = 0;
+		this.fixedStep = 0;
+		this.previousPos = new float[0];
+		this.previousSize = -1;
+		this.lod = null;
+		this.recorder = null;
+		this.attributes = null;
 	}
 	
 	public ParticleController(ParticleGroup pgroup, Emitter emitter, ArrayList<Force> forces, DifferentialSolver solver) {
@@ -64,12 +128,142 @@ public class ParticleController extends AbstController {
 		this.psolver = solver;
 		this.emitter = emitter;
 		this.pgroup = pgroup;
+		this.positions = new PositionBuffer();
+		if (pgroup != null)
+			pgroup.setPositionBuffer(positions);
+		this.sharePositions = (pgroup != null);
 		this.lastTime = 0;
+		this.fixedStep = 0;
+		this.previousPos = new float[0];
+		this.previousSize = -1;
+		this.lod = null;
+		this.recorder = null;
+		this.attributes = null;
 		ArrayList<Particle> particles = new ArrayList<Particle> ();
 		this.psystem = new ParticleSystem(particles, forces);
 		this.psystem.setDynamic();
 	}
 	
+	/**
+	 * Switches to fixed step mode: each update integrates as many steps of 
+	 * the given size as fit into the time since the last update, the rest is
+	 * carried over to the next update. The cost of an update then depends on
+	 * the simulated time only, not on the frame times. The positions passed 
+	 * to the particle group are interpolated between the last two steps.
+	 * The solver should make one step per call of solve() in this mode.
+	 * @param step Size of the fixed steps, 0 switches back to variable steps
+	 * @param maxSubsteps Maximum number of steps per update
+	 */
+	public void setFixedStep(float step, int maxSubsteps) {
+		assert (step >= 0 && maxSubsteps > 0) : "Invalid fixed step";
+		this.fixedStep = step;
+		this.maxSubsteps = maxSubsteps;
+		this.accumulator = 0;
+		this.simulatedTime = lastTime;
+		this.previousSize = -1;
+	}
+	
+	/**
+	 * Evaluates the forces and colliders of the particle system in parallel,
+	 * see ParticleSystem.setParallel()
+	 * @param pool Pool for the tasks, null for sequential evaluation
+	 * @param chunkSize Number of particles per task
+	 */
+	public void setParallel(ForkJoinPool pool, int chunkSize) {
+		psystem.setParallel(pool, chunkSize);
+	}
+	
+	/**
+	 * Sorts the particles in Morton order every sortInterval updates, which
+	 * speeds up neighbor forces and colliders on large systems. Sorting is
+	 * off by default, ParticleSystem.DEFAULT_SORT_INTERVAL is a good start.
+	 * @param sortInterval Number of updates between two sorts, 0 disables sorting
+	 */
+	public void setSortInterval(int sortInterval) {
+		psystem.setSortInterval(sortInterval);
+	}
+	
+	/**
+	 * @return The particle system, which is created by the controller if it
+	 * was constructed with an emitter
+	 */
+	public ParticleSystem getParticleSystem() {
+		return psystem;
+	}
+	
+	/**
+	 * @param lod Level of detail policy, null to integrate all particles in every step
+	 */
+	public void setLOD(ParticleLOD lod) {
+		this.lod = lod;
+		if (lod == null)
+			psystem.setTimeScales(null);
+	}
+	
+	public ParticleLOD getLOD() {
+		return lod;
+	}
+	
+	/**
+	 * @param recorder Recorder, which receives the state after each update, null to stop recording.
+	 * The recorder is not closed by the controller.
+	 */
+	public void setRecorder(ParticleRecorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Writes color, point size and normalized age of the particles interleaved
+	 * with their positions into the buffer of the particle group, in the same 
+	 * pass as the positions. The layout of the buffer is PositionBuffer.ATTRIBUTES.
+	 * @param attributes Attributes, null to write positions only
+	 */
+	public void setAttributes(ParticleAttributes attributes) {
+		this.attributes = attributes;
+		int stride = (attributes != null) ? PositionBuffer.ATTRIBUTES : PositionBuffer.POSITIONS;
+		if (positions.stride() != stride) {
+			positions = new PositionBuffer(positions.capacity(), stride);
+			if (pgroup != null)
+				pgroup.setPositionBuffer(positions);
+		}
+	}
+	
+	public ParticleAttributes getAttributes() {
+		return attributes;
+	}
+	
+	/**
+	 * Makes the controller write its positions after each update for a
+	 * ParticleWorld. The particle group of the controller is detached, so
+	 * that the particles are only drawn by the group of the world.
+	 */
+	void sharePositions() {
+		sharePositions = true;
+		if (pgroup != null) {
+			pgroup.setPositionBuffer(null);
+			pgroup = null;
+		}
+	}
+	
+	/**
+	 * @return Positions written after the last update
+	 */
+	PositionBuffer getPositionBuffer() {
+		return positions;
+	}
+	
+	public float getFixedStep() {
+		return fixedStep;
+	}
+	
+	/**
+	 * @return Time up to which the particles have been simulated, which lags
+	 * behind the local time by less than one step in fixed step mode
+	 */
+	public float getSimulatedTime() {
+		return (fixedStep > 0) ? simulatedTime : lastTime;
+	}
+	
 	/**
 	 * Main method of the controller. Overrides AbstController.update()
 	 */
@@ -86,23 +280,104 @@ public class ParticleController extends AbstController {
 		if (localTime < localMinTime || localTime > localMaxTime)
 			return false;
 		
+		long start = System.nanoTime();
+		if (fixedStep > 0) {
+			updateFixed(localTime);
+		}
+		else {
+			step(lastTime, localTime);
+			
+			if (sharePositions)
+				writePositions(localTime, null, 0);
+		}
+		
+		if (lod != null && emitter != null)
+			emitter.setRateScale(lod.emissionScale((System.nanoTime() - start) / 1e6f));
+		
+		lastTime = localTime;
+		
+		if (recorder != null) {
+			try {
+				recorder.record(getSimulatedTime(), psystem.getStore());
+			}
+			catch (IOException e) {
+				System.err.println("*Error* Can't write particle recording, recording stopped: " + e.getMessage());
+				recorder = null;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Advances the particle system from tstart to tend
+	 */
+	private void step(float tstart, float tend) {
 		// eliminate dead particles
-		psystem.eliminateDeadParticles (localTime);
+		psystem.eliminateDeadParticles (tend);
 		
-		// emit new particles and initialize them
+		// emit new particles directly into the slots of the particle store
 		if (emitter != null)
-		{
-			ArrayList<Particle> newParticles = emitter.emit(lastTime, localTime);
-			psystem.addParticles (newParticles);
+			emitter.emit(tstart, tend, psystem.getStore());
+		
+		// restore spatial order after emissions and deaths
+		psystem.sortIfDue();
+		
+		if (lod != null)
+			lod.update(psystem, tstart, tend);
+		
+		// remember the positions, the slots do not change during solve()
+		if (fixedStep > 0) {
+			ParticleStore store = psystem.getStore();
+			if (previousPos.length < store.pos.length)
+				previousPos = new float[store.pos.length];
+			System.arraycopy(store.pos, 0, previousPos, 0, 3*store.size());
+			previousSize = store.size();
 		}
 		
 		// update the state of all particles
-		psolver.solve( psystem, lastTime, localTime);
+		psolver.solve( psystem, tstart, tend);
+	}
+	
+	private void updateFixed(float localTime) {
+		accumulator += localTime - lastTime;
+		int steps = (int) (accumulator / fixedStep);
+		if (steps > maxSubsteps) {
+			steps = maxSubsteps;
+			accumulator = steps * fixedStep + accumulator % fixedStep;
+		}
 		
-		if (pgroup != null)
-			pgroup.setParticlePositions(psystem.getParticlePositions());
-			
-		lastTime = localTime;
-		return true;
-	}	
+		for (int i = 0; i < steps; i++) {
+			step(simulatedTime, simulatedTime + fixedStep);
+			simulatedTime += fixedStep;
+			accumulator -= fixedStep;
+		}
+		
+		if (!sharePositions)
+			return;
+		
+		if (previousSize != psystem.getStore().size()) {
+			// no step has been made yet, or particles have been added from outside
+			writePositions(simulatedTime, null, 0);
+		}
+		else {
+			float alpha = Math.min(1, Math.max(0, accumulator / fixedStep));
+			writePositions(simulatedTime, previousPos, alpha);
+		}
+	}
+	
+	/**
+	 * Fills the back half of the position buffer, with attributes if set, and swaps it
+	 * @param previous Positions before the last step, null for the current positions
+	 */
+	private void writePositions(float time, float[] previous, float alpha) {
+		ParticleStore store = psystem.getStore();
+		int size = store.size();
+		if (attributes != null)
+			attributes.write(store, time, positions.back(size), previous, alpha);
+		else if (previous != null)
+			psystem.writePositions(positions.back(size), previous, alpha);
+		else
+			psystem.writePositions(positions.back(size));
+		positions.swap(size);
+	}
 }
@@ -28,6 +28,11 @@ public class ParticleEulerController extends AbstController {
 	 */
 	private int steps;
 	
+	/**
+	 * Scratch buffer for the derivative, reused for all updates
+	 */
+	private float[] deriv;
+	
 	/**
 	 * Constructor of class. 
 	 * @param name Name of the controller
@@ -40,6 +45,7 @@ public class ParticleEulerController extends AbstController {
 		this.psystem = psystem;
 		this.lastTime = 0.0f;
 		this.steps = steps;
+		this.deriv = new float[psystem.getDimension()];
 	}
 	
 	/**
@@ -58,9 +64,12 @@ public class ParticleEulerController extends AbstController {
 		
 		float h = deltaTime / steps;
 		
+		if (deriv.length < psystem.getDimension())
+			deriv = new float[psystem.getDimension()];
+		
 		for (int i = 0 ; i < steps; i++) {
 			float t = lastTime + h*i;
-			EulerStep.update(psystem, t, h);
+			EulerStep.update(psystem, t, h, deriv);
 		}
 			
 		lastTime = localTime;
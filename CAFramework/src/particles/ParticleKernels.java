@@ -0,0 +1,68 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Array kernels of the integration step. The kernels are plain scalar Java 
+ * loops, there is no explicit SIMD path, as the project is compiled for 
+ * Java 8 without the Vector API. axpy, scale and add are counted loops 
+ * with unit stride, which the HotSpot compiler may vectorize (superword
+ * optimization), accelerations is not vectorized because of its stride of 3.
+ * Compared to the former solver loops, the gain comes from updating the 
+ * state in place in one pass instead of scaling a copy and adding it.
+ * ParticleBenchmark times the kernels against the former loops, with 
+ * -XX:-UseSuperWord it shows the share of the auto vectorization.
+ */
+public final class ParticleKernels {
+
+	private ParticleKernels() {
+	}
+
+	/**
+	 * y[yOffset+i] += a * x[xOffset+i] for i = 0 .. n-1
+	 */
+	public static void axpy(float a, float[] x, int xOffset, float[] y, int yOffset, int n) {
+		for (int i = 0; i < n; i++) {
+			y[yOffset+i] += a * x[xOffset+i];
+		}
+	}
+
+	/**
+	 * x[i] *= a for i = 0 .. n-1
+	 */
+	public static void scale(float[] x, float a, int n) {
+		for (int i = 0; i < n; i++) {
+			x[i] *= a;
+		}
+	}
+
+	/**
+	 * c[i] = a[i] + b[i] for i = 0 .. n-1
+	 */
+	public static void add(float[] a, float[] b, float[] c, int n) {
+		for (int i = 0; i < n; i++) {
+			c[i] = a[i] + b[i];
+		}
+	}
+
+	/**
+	 * Accelerations of particles 0 .. count-1, i.e. acc[offset+j] = force[j] / mass[j/3]
+	 */
+	public static void accelerations(float[] force, float[] mass, float[] acc, int offset, int count) {
+		for (int i = 0; i < count; i++) {
+			int j = 3*i;
+			float invMass = 1.0f / mass[i];
+			acc[offset+j]   = force[j]   * invMass;
+			acc[offset+j+1] = force[j+1] * invMass;
+			acc[offset+j+2] = force[j+2] * invMass;
+		}
+	}
+}
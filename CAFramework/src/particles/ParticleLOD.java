@@ -0,0 +1,237 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+
+import math.Vec3;
+import scenegraph.PerspectiveCamera;
+
+/**
+ * Level of detail policy of a ParticleController. Before each step every
+ * particle gets one of three levels from its position relative to a camera:
+ *
+ * - full: in the view frustum and closer than the detail distance, the
+ *   particle is integrated in every step
+ * - coarse: in the frustum beyond the detail distance, or outside of the
+ *   frustum, the particle is integrated only every coarseInterval-th step,
+ *   then over the whole time since its last integration. The particles are
+ *   distributed over the steps in blocks of consecutive slots.
+ * - frozen: beyond the freeze distance, or outside of the frustum if
+ *   freezeOutside is set, the particle is not integrated at all and its
+ *   time stands still
+ *
+ * The levels are passed to the particle system as time scales, see
+ * ParticleSystem.setTimeScales(), which skips particles of scale 0 in the
+ * force evaluation and the solver updates. Therefore the time scales only
+ * work with the explicit solvers. The aspect ratio of the frustum is that of
+ * the camera, see AbstCamera.setAspectRatio().
+ *
+ * With a frame budget the emission rate of the emitter is scaled down, while
+ * updates take longer than the budget, and recovers slowly when they are faster.
+ */
+public class ParticleLOD {
+
+	public static final int FULL = 0;
+	public static final int COARSE = 1;
+	public static final int FROZEN = 2;
+
+	/**
+	 * Number of consecutive slots, whose coarse particles are integrated in
+	 * the same step, so that the particle system skips long runs of slots
+	 */
+	private static final int BLOCK = 256;
+
+	private PerspectiveCamera camera;
+
+	private float detailDistance;
+	private float freezeDistance;
+	private int coarseInterval;
+	private boolean freezeOutside;
+
+	/**
+	 * Extends the frustum, so that particles are not culled while their
+	 * sprite still reaches into the view
+	 */
+	private float margin;
+
+	/**
+	 * Frame budget in milliseconds, 0 if the emission is not limited
+	 */
+	private float frameBudget;
+	private float minRateScale;
+	private float rateScale;
+
+	/**
+	 * Number of steps since construction, selects the coarse particles of a step
+	 */
+	private int step;
+
+	private float[] scales;
+	private int[] counts;
+
+	/**
+	 * Time up to which each particle has been integrated and its birth time,
+	 * by id. A different birth time marks a new particle with a reused id.
+	 */
+	private float[] ticks;
+	private float[] births;
+
+	/**
+	 * Constructor
+	 * @param camera Camera from which the particles are seen
+	 * @param detailDistance Distance up to which visible particles are integrated in every step
+	 * @param coarseInterval Number of steps per integration of coarse particles
+	 */
+	public ParticleLOD(PerspectiveCamera camera, float detailDistance, int coarseInterval) {
+		assert (coarseInterval > 0) : "Coarse interval must be positive";
+		this.camera = camera;
+		this.detailDistance = detailDistance;
+		this.freezeDistance = Float.POSITIVE_INFINITY;
+		this.coarseInterval = coarseInterval;
+		this.freezeOutside = false;
+		this.margin = 0;
+		this.frameBudget = 0;
+		this.minRateScale = 0.1f;
+		this.rateScale = 1;
+		this.step = 0;
+		this.scales = new float[0];
+		this.counts = new int[3];
+		this.ticks = new float[0];
+		this.births = new float[0];
+	}
+
+	/**
+	 * @param freezeDistance Distance beyond which particles are frozen
+	 */
+	public void setFreezeDistance(float freezeDistance) {
+		this.freezeDistance = freezeDistance;
+	}
+
+	/**
+	 * @param freezeOutside Freeze particles outside of the frustum instead of integrating them coarsely
+	 */
+	public void setFreezeOutside(boolean freezeOutside) {
+		this.freezeOutside = freezeOutside;
+	}
+
+	public void setMargin(float margin) {
+		this.margin = margin;
+	}
+
+	/**
+	 * @param frameBudget Time in milliseconds, which an update of the controller should not exceed, 0 for no limit
+	 * @param minRateScale Lower limit of the scale of the emission rate
+	 */
+	public void setFrameBudget(float frameBudget, float minRateScale) {
+		this.frameBudget = frameBudget;
+		this.minRateScale = minRateScale;
+		this.rateScale = 1;
+	}
+
+	/**
+	 * Assigns the levels of all particles for the next step and passes
+	 * them to the particle system
+	 * @param psystem Particle system
+	 * @param tstart Start time of the step
+	 * @param tend End time of the step
+	 */
+	public void update(ParticleSystem psystem, float tstart, float tend) {
+		ParticleStore store = psystem.getStore();
+		int size = store.size();
+		if (scales.length < size)
+			scales = new float[store.capacity()];
+		if (ticks.length < store.capacity()) {
+			int length = ticks.length;
+			ticks = Arrays.copyOf(ticks, store.capacity());
+			births = Arrays.copyOf(births, store.capacity());
+			Arrays.fill(births, length, births.length, Float.NaN);
+		}
+		float h = tend - tstart;
+
+		Vec3 location = camera.location();
+		Vec3 d = camera.direction();
+		Vec3 u = camera.getUp();
+		Vec3 r = camera.right();
+		float tanY = (float) Math.tan(Math.toRadians(camera.getFov()) / 2);
+		float tanX = tanY * camera.aspectRatio();
+		float near = camera.getZNear() - margin;
+		float far = Math.min(camera.getZFar(), freezeDistance) + margin;
+		float detailSq = detailDistance * detailDistance;
+		float freezeSq = freezeDistance * freezeDistance;
+
+		counts[FULL] = counts[COARSE] = counts[FROZEN] = 0;
+		float[] pos = store.pos;
+		for (int i = 0; i < size; i++) {
+			float px = pos[3*i]   - location.x;
+			float py = pos[3*i+1] - location.y;
+			float pz = pos[3*i+2] - location.z;
+			float distanceSq = px*px + py*py + pz*pz;
+
+			float z = px*d.x + py*d.y + pz*d.z;
+			float x = px*r.x + py*r.y + pz*r.z;
+			float y = px*u.x + py*u.y + pz*u.z;
+			boolean inside = z >= near && z <= far
+					&& Math.abs(x) <= z * tanX + margin && Math.abs(y) <= z * tanY + margin;
+
+			int level;
+			if (distanceSq > freezeSq || (!inside && freezeOutside))
+				level = FROZEN;
+			else if (!inside || distanceSq > detailSq)
+				level = COARSE;
+			else
+				level = FULL;
+			counts[level]++;
+
+			int id = store.id(i);
+			if (births[id] != store.birthtime[i]) {
+				births[id] = store.birthtime[i];
+				ticks[id] = tstart;
+			}
+
+			if (level == COARSE && (step + i / BLOCK) % coarseInterval != 0) {
+				scales[i] = 0;
+				continue;
+			}
+			if (level == FROZEN || h <= 0)
+				scales[i] = 0;
+			else
+				scales[i] = (tend - ticks[id]) / h;
+			ticks[id] = tend;
+		}
+		step++;
+		psystem.setTimeScales(scales);
+	}
+
+	/**
+	 * Adapts the scale of the emission rate to the duration of the last update
+	 * @param millis Duration of the last update in milliseconds
+	 * @return Scale of the emission rate for the next update
+	 */
+	public float emissionScale(float millis) {
+		if (frameBudget <= 0)
+			return 1;
+
+		if (millis > frameBudget)
+			rateScale = Math.max(minRateScale, rateScale * frameBudget / millis);
+		else
+			rateScale = Math.min(1, rateScale + 0.05f);
+		return rateScale;
+	}
+
+	/**
+	 * @param level FULL, COARSE or FROZEN
+	 * @return Number of particles at the level in the last step
+	 */
+	public int getCount(int level) {
+		return counts[level];
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.SplittableRandom;
+
+/**
+ * Source of random numbers for emitters and stochastic forces. Each emitter
+ * and force draws its own seed from a root generator when it is created. 
+ * Forces derive an independent SplittableRandom stream from this seed, the
+ * evaluation time and the first particle of a chunk. The random numbers of a
+ * particle are therefore independent of the thread which evaluates its chunk,
+ * and a simulation is reproducible after setSeed() has been called before the
+ * emitters and forces are created.
+ */
+public final class ParticleRandom {
+
+	private static SplittableRandom root = new SplittableRandom();
+
+	private ParticleRandom() {
+	}
+
+	/**
+	 * Resets the root generator. Emitters and forces which are created
+	 * afterwards get reproducible seeds.
+	 * @param seed
+	 */
+	public static synchronized void setSeed(long seed) {
+		root = new SplittableRandom(seed);
+	}
+
+	/**
+	 * @return new seed for an emitter or a force
+	 */
+	public static synchronized long nextSeed() {
+		return root.nextLong();
+	}
+
+	/**
+	 * Creates the random stream of a chunk of particles
+	 * @param seed Seed of the force
+	 * @param time Evaluation time
+	 * @param from First particle of the chunk
+	 */
+	public static SplittableRandom stream(long seed, float time, int from) {
+		return new SplittableRandom(mix(mix(seed ^ Float.floatToIntBits(time)) + from));
+	}
+
+	/**
+	 * @return uniformly distributed value in [0, 1)
+	 */
+	public static float nextFloat(SplittableRandom random) {
+		return (random.nextInt() >>> 8) * 0x1.0p-24f;
+	}
+
+	/**
+	 * @return uniformly distributed value in [min, max)
+	 */
+	public static float nextFloat(SplittableRandom random, float min, float max) {
+		return min + (max - min) * nextFloat(random);
+	}
+
+	/**
+	 * @return normally distributed value with mean 0 and deviation 1 (polar method)
+	 */
+	public static float nextGaussian(SplittableRandom random) {
+		double a, b, s;
+		do {
+			a = 2 * random.nextDouble() - 1;
+			b = 2 * random.nextDouble() - 1;
+			s = a*a + b*b;
+		} while (s >= 1 || s == 0);
+		return (float) (a * Math.sqrt(-2 * Math.log(s) / s));
+	}
+
+	/**
+	 * Writes a uniformly distributed point on the unit sphere to 
+	 * v[offset], v[offset+1], v[offset+2], see Vec3.createRandomPointOnSphere()
+	 */
+	public static void pointOnSphere(SplittableRandom random, float[] v, int offset) {
+		float a, b, s;
+		do {
+			a = 2.0f * nextFloat(random) - 1.0f;
+			b = 2.0f * nextFloat(random) - 1.0f;
+			s = a*a + b*b;
+		} while (s >= 1);
+		float sq = 2.0f * (float) Math.sqrt(1-s);
+		v[offset] = a * sq;
+		v[offset+1] = b * sq;
+		v[offset+2] = 1.0f - 2.0f * s;
+	}
+
+	/**
+	 * Finalizer of the SplitMix64 generator
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Records the states of a particle store frame by frame into a binary file,
+ * which is written through memory mapped windows of a FileChannel. The file
+ * is read by ParticleRecording. All values are little endian.
+ *
+ * Header: magic, version, flags, number of frames (int each), offset of the
+ * frame index, length of the data (long each).
+ * Frame: time, number of particles n, 3n positions, 3n velocities and, if 
+ * recorded, n ages (float each, n as int).
+ * Index at the end: time (float) and offset (long) of each frame.
+ *
+ * The header is written when the file is created, the number of frames and
+ * the length are updated after each frame. The index is only written by 
+ * close(), until then its offset is 0 and ParticleRecording finds the frames
+ * by their sizes. So the frames of a recording, which has not been closed
+ * e.g. after a crash, can still be replayed.
+ */
+public class ParticleRecorder implements Closeable {
+
+	static final int MAGIC = 0x50524543;
+	static final int VERSION = 1;
+	static final int FLAG_AGES = 1;
+	static final int HEADER_SIZE = 32;
+	static final int INDEX_ENTRY_SIZE = 12;
+
+	/**
+	 * Size of the mapped windows, frames which are larger get a window of their own size
+	 */
+	private static final int WINDOW = 1 << 24;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	/**
+	 * Mapped header at the start of the file
+	 */
+	private MappedByteBuffer header;
+
+	/**
+	 * Mapped window, which starts at bufferStart in the file
+	 */
+	private MappedByteBuffer buffer;
+	private long bufferStart;
+
+	/**
+	 * End of the written data in the file
+	 */
+	private long position;
+
+	private boolean ages;
+	private float[] ageScratch;
+
+	private int frames;
+	private float[] times;
+	private long[] offsets;
+
+	/**
+	 * Creates the file, an existing file is overwritten
+	 * @param path File to write
+	 * @param ages Record the age of each particle
+	 */
+	public ParticleRecorder(File path, boolean ages) throws IOException {
+		this.file = new RandomAccessFile(path, "rw");
+		this.file.setLength(0);
+		this.channel = file.getChannel();
+		this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		this.header.order(ByteOrder.LITTLE_ENDIAN);
+		this.buffer = null;
+		this.bufferStart = 0;
+		this.position = HEADER_SIZE;
+		this.ages = ages;
+		this.ageScratch = new float[0];
+		this.frames = 0;
+		this.times = new float[64];
+		this.offsets = new long[64];
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(ages ? FLAG_AGES : 0);
+		writeHeader(0);
+	}
+
+	/**
+	 * Appends the current state of the particles as a frame
+	 * @param time Time of the frame
+	 * @param store Particles
+	 */
+	public void record(float time, ParticleStore store) throws IOException {
+		if (channel == null)
+			throw new IOException("Recorder has been closed");
+
+		int n = store.size();
+		long bytes = 8 + 4L * (ages ? 7 : 6) * n;
+		ByteBuffer out = reserve(bytes);
+		out.putFloat(time);
+		out.putInt(n);
+		FloatBuffer values = out.asFloatBuffer();
+		values.put(store.pos, 0, 3*n);
+		values.put(store.vel, 0, 3*n);
+		if (ages) {
+			if (ageScratch.length < n)
+				ageScratch = new float[store.birthtime.length];
+			for (int i = 0; i < n; i++)
+				ageScratch[i] = time - store.birthtime[i];
+			values.put(ageScratch, 0, n);
+		}
+
+		if (frames == times.length) {
+			times = Arrays.copyOf(times, 2 * frames);
+			offsets = Arrays.copyOf(offsets, 2 * frames);
+		}
+		times[frames] = time;
+		offsets[frames] = position;
+		frames++;
+		position += bytes;
+		writeHeader(0);
+	}
+
+	public int getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Writes the index and the header and closes the file. If the file cannot
+	 * be truncated to its data, e.g. on platforms which do not truncate mapped 
+	 * files, it is closed anyway and the exception is thrown. The recording is
+	 * complete in this case, the header knows its length.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel == null)
+			return;
+
+		long indexOffset = position;
+		ByteBuffer out = reserve((long) INDEX_ENTRY_SIZE * frames);
+		for (int f = 0; f < frames; f++) {
+			out.putFloat(times[f]);
+			out.putLong(offsets[f]);
+		}
+		position += (long) INDEX_ENTRY_SIZE * frames;
+		writeHeader(indexOffset);
+		header = null;
+		buffer = null;
+
+		// the last window may reach beyond the data
+		try {
+			channel.truncate(position);
+		}
+		finally {
+			channel.close();
+			file.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Writes the number of frames, the offset of the index and the length of
+	 * the data into the header
+	 * @param indexOffset Offset of the index, 0 while it has not been written
+	 */
+	private void writeHeader(long indexOffset) {
+		header.putInt(12, frames);
+		header.putLong(16, indexOffset);
+		header.putLong(24, position);
+	}
+
+	/**
+	 * Makes sure, that bytes from the current position are mapped
+	 * @return Little endian buffer, which starts at the current position
+	 */
+	private ByteBuffer reserve(long bytes) throws IOException {
+		if (buffer == null || position + bytes > bufferStart + buffer.capacity()) {
+			long size = Math.max(WINDOW, bytes);
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Frame too large for recording: " + bytes + " bytes");
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+			bufferStart = position;
+		}
+		buffer.position((int) (position - bufferStart));
+		return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read access to a file written by ParticleRecorder. The file is mapped into
+ * memory in segments, which are mapped when a frame in them is read first,
+ * so frames are read without copying the file. Files of recorders which have
+ * not been closed contain all frames recorded so far.
+ */
+public class ParticleRecording implements Closeable {
+
+	/**
+	 * Frames start within a segment of this size, each segment is mapped with
+	 * the size of the largest frame in addition, so frames never cross segments
+	 */
+	private static final long SEGMENT = 1L << 30;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	private boolean ages;
+	private int frames;
+	private float[] times;
+	private long[] offsets;
+	private int[] counts;
+
+	private long length;
+	private long maxFrameSize;
+	private ByteBuffer[] segments;
+
+	public ParticleRecording(File path) throws IOException {
+		this.file = new RandomAccessFile(path, "r");
+		this.channel = file.getChannel();
+
+		ByteBuffer header = map(0, ParticleRecorder.HEADER_SIZE);
+		if (header.getInt() != ParticleRecorder.MAGIC || header.getInt() != ParticleRecorder.VERSION) {
+			close();
+			throw new IOException("Not a particle recording: " + path);
+		}
+		this.ages = (header.getInt() & ParticleRecorder.FLAG_AGES) != 0;
+		this.frames = header.getInt();
+		long indexOffset = header.getLong();
+		this.length = header.getLong();
+
+		this.times = new float[frames];
+		this.offsets = new long[frames];
+		this.counts = new int[frames];
+		if (indexOffset > 0) {
+			ByteBuffer index = map(indexOffset, (long) ParticleRecorder.INDEX_ENTRY_SIZE * frames);
+			for (int f = 0; f < frames; f++) {
+				times[f] = index.getFloat();
+				offsets[f] = index.getLong();
+			}
+		}
+		else {
+			// no index, the recorder has not been closed
+			indexOffset = scanFrames();
+		}
+
+		this.maxFrameSize = 0;
+		for (int f = 0; f < frames; f++) {
+			long end = (f + 1 < frames) ? offsets[f+1] : indexOffset;
+			maxFrameSize = Math.max(maxFrameSize, end - offsets[f]);
+			counts[f] = (int) ((end - offsets[f] - 8) / (4 * (ages ? 7 : 6)));
+		}
+		this.segments = new ByteBuffer[(int) (length / SEGMENT) + 1];
+	}
+
+	public int getFrameCount() {
+		return frames;
+	}
+
+	public boolean hasAges() {
+		return ages;
+	}
+
+	public float getTime(int frame) {
+		return times[frame];
+	}
+
+	/**
+	 * @return Number of particles of a frame
+	 */
+	public int getCount(int frame) {
+		return counts[frame];
+	}
+
+	/**
+	 * @return Last frame which is not later than the given time, 0 for times before the first frame
+	 */
+	public int findFrame(float time) {
+		int low = 0;
+		int high = frames - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (times[mid] <= time)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Copies the 3n positions of a frame
+	 */
+	public void readPositions(int frame, float[] dst) throws IOException {
+		values(frame).get(dst, 0, 3 * counts[frame]);
+	}
+
+	/**
+	 * Copies the 3n positions of a frame into a buffer from its position on,
+	 * e.g. the back half of a PositionBuffer
+	 */
+	public void readPositions(int frame, FloatBuffer dst) throws IOException {
+		FloatBuffer values = values(frame);
+		values.limit(3 * counts[frame]);
+		dst.put(values);
+	}
+	
+	/**
+	 * Copies the 3n velocities of a frame
+	 */
+	public void readVelocities(int frame, float[] dst) throws IOException {
+		FloatBuffer values = values(frame);
+		values.position(3 * counts[frame]);
+		values.get(dst, 0, 3 * counts[frame]);
+	}
+
+	/**
+	 * Copies the n ages of a frame, if they have been recorded
+	 */
+	public void readAges(int frame, float[] dst) throws IOException {
+		if (!ages)
+			throw new IOException("Recording contains no ages");
+		FloatBuffer values = values(frame);
+		values.position(6 * counts[frame]);
+		values.get(dst, 0, counts[frame]);
+	}
+
+	@Override
+	public void close() throws IOException {
+		segments = null;
+		channel.close();
+		file.close();
+	}
+
+	/**
+	 * @return Values of a frame after time and count
+	 */
+	private FloatBuffer values(int frame) throws IOException {
+		int s = (int) (offsets[frame] / SEGMENT);
+		if (segments[s] == null) {
+			long start = s * SEGMENT;
+			segments[s] = map(start, Math.min(length, start + SEGMENT + maxFrameSize) - start);
+		}
+		ByteBuffer buffer = segments[s].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position((int) (offsets[frame] - s * SEGMENT) + 8);
+		return buffer.asFloatBuffer();
+	}
+
+	/**
+	 * Finds the frames one after the other from their particle counts
+	 * @return End of the last frame
+	 */
+	private long scanFrames() throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		long offset = ParticleRecorder.HEADER_SIZE;
+		for (int f = 0; f < frames; f++) {
+			frame.clear();
+			while (frame.hasRemaining()) {
+				if (channel.read(frame, offset + frame.position()) < 0)
+					throw new IOException("Particle recording ends within frame " + f);
+			}
+			offsets[f] = offset;
+			times[f] = frame.getFloat(0);
+			offset += 8 + 4L * (ages ? 7 : 6) * frame.getInt(4);
+		}
+		return offset;
+	}
+
+	private ByteBuffer map(long offset, long size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
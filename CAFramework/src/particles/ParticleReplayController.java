@@ -0,0 +1,80 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.io.IOException;
+
+import scenegraph.ParticleGroup;
+import util.PositionBuffer;
+import animation.AbstController;
+
+/**
+ * Plays a ParticleRecording back into a particle group without simulating.
+ * Each update shows the last frame which is not later than the local time.
+ */
+public class ParticleReplayController extends AbstController {
+
+	private ParticleGroup pgroup;
+
+	private ParticleRecording recording;
+
+	/**
+	 * Frame which is shown, -1 before the first update
+	 */
+	private int frame;
+
+	/**
+	 * Positions shared with the particle group
+	 */
+	private PositionBuffer positions;
+
+	public ParticleReplayController(ParticleGroup pgroup, ParticleRecording recording) {
+		super(AbstController.RepeatType.CLAMP, 0, Float.POSITIVE_INFINITY);
+		setName("ParticleReplayController");
+		this.pgroup = pgroup;
+		this.recording = recording;
+		this.frame = -1;
+		this.positions = new PositionBuffer();
+		pgroup.setPositionBuffer(positions);
+	}
+
+	/**
+	 * Main method of the controller. Overrides AbstController.update()
+	 */
+	@Override
+	public boolean update(float time) {
+		if (!super.update(time) || recording.getFrameCount() == 0)
+			return false;
+
+		int next = recording.findFrame(getLocalTime(time));
+		if (next == frame)
+			return false;
+
+		int count = recording.getCount(next);
+		try {
+			recording.readPositions(next, positions.back(count));
+		}
+		catch (IOException e) {
+			System.err.println("*Error* Can't read frame " + next + " of particle recording: " + e.getMessage());
+			return false;
+		}
+		positions.swap(count);
+		frame = next;
+		return true;
+	}
+
+	/**
+	 * @return Frame which is shown
+	 */
+	public int getFrame() {
+		return frame;
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import math.MathUtil;
+
+/**
+ * Pushes particles apart which are closer than the radius of the force. The
+ * force decreases linearly from strength at contact to zero at the radius.
+ */
+public class ParticleRepulsion extends NeighborForce {
+
+	public ParticleRepulsion(float radius, float strength) {
+		super(radius, strength);
+	}
+	
+	@Override
+	public void visit(int i, int j, float dx, float dy, float dz, float distanceSquared) {
+		float distance = (float) Math.sqrt(distanceSquared);
+		if (distance < MathUtil.EPS)
+			return;
+		
+		float f = strength * (1 - distance / radius) / distance;
+		float[] force = store.force;
+		force[3*i]   -= f * dx;
+		force[3*i+1] -= f * dy;
+		force[3*i+2] -= f * dz;
+	}
+}
@@ -0,0 +1,624 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Structure of arrays storage for the particles of a particle system.
+ * Positions, velocities and forces are packed as x, y, z triples, i.e. the
+ * position of particle i is pos[3*i], pos[3*i+1], pos[3*i+2]. Mass, birthtime
+ * and lifespan are stored with one value per particle.
+ *
+ * Particle objects which are passed to a particle system are bound to one
+ * slot of the store and act as views onto this slot, see bind().
+ *
+ * Particles with a finite lifespan are kept in a heap ordered by the time of
+ * their death, so that the removal of k dead particles costs O(k log n)
+ * instead of a pass over all particles. Birthtime and lifespan must therefore
+ * not be changed after a particle has been added.
+ *
+ * Removal and sortByMorton() change the slots of particles. Each particle
+ * has an id which stays the same during its life, see id() and slot().
+ *
+ * Color (RGBA) and point size of each particle are optional attributes for 
+ * rendering, which are only stored after enableAttributes().
+ */
+public class ParticleStore {
+
+	private static final float GROWTH_FACTOR = 1.5f;
+
+	public float[] pos;
+	public float[] vel;
+	public float[] force;
+	public float[] mass;
+	public float[] birthtime;
+	public float[] lifespan;
+	
+	/**
+	 * Optional attributes, null unless enabled: color as r, g, b, a quadruples
+	 * and a point size factor per particle
+	 */
+	public float[] color;
+	public float[] pointSize;
+
+	/**
+	 * Bound particle objects, null for particles which live in the store only
+	 */
+	Particle[] views;
+
+	/**
+	 * Number of bound particle objects
+	 */
+	int viewCount;
+
+	/**
+	 * Number of live particles
+	 */
+	private int size;
+
+	/**
+	 * Min heap of the slots of mortal particles, ordered by time of death
+	 */
+	private int[] heap;
+	private int heapSize;
+
+	/**
+	 * Position of each slot in the heap, -1 for immortal particles
+	 */
+	private int[] heapIndex;
+
+	/**
+	 * Id of the particle in each slot and slot of each id, -1 for unused ids.
+	 * Ids of dead particles are reused.
+	 */
+	private int[] ids;
+	private int[] slots;
+	private int[] freeIds;
+	private int freeCount;
+	private int idCount;
+
+	/**
+	 * Sort keys and spare arrays for the permutation of sortByMorton()
+	 */
+	private long[] keys;
+	private float[] spare3;
+	private float[] spare1;
+	private float[] spare4;
+	private int[] spareInt;
+	private Particle[] spareViews;
+
+	/**
+	 * Constructor
+	 * @param capacity Initial number of particles which fit into the store
+	 */
+	public ParticleStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.pos = new float[3*capacity];
+		this.vel = new float[3*capacity];
+		this.force = new float[3*capacity];
+		this.mass = new float[capacity];
+		this.birthtime = new float[capacity];
+		this.lifespan = new float[capacity];
+		this.views = new Particle[capacity];
+		this.viewCount = 0;
+		this.size = 0;
+		this.heap = new int[capacity];
+		this.heapSize = 0;
+		this.heapIndex = new int[capacity];
+		this.ids = new int[capacity];
+		this.slots = new int[capacity];
+		this.freeIds = new int[capacity];
+		this.freeCount = 0;
+		this.idCount = 0;
+		this.color = null;
+		this.pointSize = null;
+	}
+	
+	/**
+	 * Stores color and point size for each particle, initially white and 1.
+	 * Emitters then set the attributes of new particles.
+	 */
+	public void enableAttributes() {
+		if (color != null)
+			return;
+		color = new float[4*mass.length];
+		pointSize = new float[mass.length];
+		Arrays.fill(color, 1);
+		Arrays.fill(pointSize, 1);
+	}
+	
+	public boolean hasAttributes() {
+		return color != null;
+	}
+	
+	public void setColor(int i, float r, float g, float b, float a) {
+		int j = 4*i;
+		color[j] = r;
+		color[j+1] = g;
+		color[j+2] = b;
+		color[j+3] = a;
+	}
+
+	/**
+	 * @return number of live particles
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of particles which fit into the store without growing
+	 */
+	public int capacity() {
+		return mass.length;
+	}
+
+	/**
+	 * Grows all arrays, so that at least minCapacity particles fit into the store
+	 * @param minCapacity
+	 */
+	public void ensureCapacity(int minCapacity) {
+		if (minCapacity <= mass.length)
+			return;
+
+		int capacity = Math.max(minCapacity, (int) (mass.length * GROWTH_FACTOR));
+		pos = Arrays.copyOf(pos, 3*capacity);
+		vel = Arrays.copyOf(vel, 3*capacity);
+		force = Arrays.copyOf(force, 3*capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		birthtime = Arrays.copyOf(birthtime, capacity);
+		lifespan = Arrays.copyOf(lifespan, capacity);
+		views = Arrays.copyOf(views, capacity);
+		heap = Arrays.copyOf(heap, capacity);
+		heapIndex = Arrays.copyOf(heapIndex, capacity);
+		ids = Arrays.copyOf(ids, capacity);
+		slots = Arrays.copyOf(slots, capacity);
+		freeIds = Arrays.copyOf(freeIds, capacity);
+		if (color != null) {
+			color = Arrays.copyOf(color, 4*capacity);
+			pointSize = Arrays.copyOf(pointSize, capacity);
+		}
+	}
+
+	/**
+	 * Appends a new particle at rest. The force is set to zero.
+	 * @return index of the new particle
+	 */
+	public int add(float mass, float x, float y, float z, float birthtime, float lifespan) {
+		ensureCapacity(size + 1);
+		int i = size++;
+		int j = 3*i;
+		pos[j] = x;
+		pos[j+1] = y;
+		pos[j+2] = z;
+		vel[j] = vel[j+1] = vel[j+2] = 0;
+		force[j] = force[j+1] = force[j+2] = 0;
+		this.mass[i] = mass;
+		this.birthtime[i] = birthtime;
+		this.lifespan[i] = lifespan;
+		if (color != null) {
+			setColor(i, 1, 1, 1, 1);
+			pointSize[i] = 1;
+		}
+		views[i] = null;
+		int id = (freeCount > 0) ? freeIds[--freeCount] : idCount++;
+		ids[i] = id;
+		slots[id] = i;
+		heapIndex[i] = -1;
+		if (lifespan != Float.POSITIVE_INFINITY) {
+			heap[heapSize] = i;
+			heapIndex[i] = heapSize;
+			siftUp(heapSize++);
+		}
+		return i;
+	}
+
+	/**
+	 * Copies the data of a particle object into a new slot of the store. The
+	 * particle object is not referenced afterwards.
+	 * @param p
+	 * @return index of the new particle
+	 */
+	public int add(Particle p) {
+		int i = add(p.mass, p.pos.x, p.pos.y, p.pos.z, p.birthtime, p.lifespan);
+		setVelocity(i, p.vel.x, p.vel.y, p.vel.z);
+		return i;
+	}
+
+	/**
+	 * Copies the data of a particle object into a new slot of the store and
+	 * binds the object to this slot. Bound objects are kept in sync by the
+	 * particle system: store values are written to the object after each state
+	 * change and read back before each force evaluation.
+	 * @param p
+	 * @return index of the new particle
+	 */
+	public int bind(Particle p) {
+		int i = add(p);
+		views[i] = p;
+		p.index = i;
+		viewCount++;
+		return i;
+	}
+
+	public void setVelocity(int i, float x, float y, float z) {
+		int j = 3*i;
+		vel[j] = x;
+		vel[j+1] = y;
+		vel[j+2] = z;
+	}
+
+	/**
+	 * Copies particle i to slot k. The former content of slot k is lost, it
+	 * must not be referenced by the heap anymore.
+	 */
+	void move(int i, int k) {
+		int a = 3*i;
+		int b = 3*k;
+		for (int c = 0; c < 3; c++) {
+			pos[b+c] = pos[a+c];
+			vel[b+c] = vel[a+c];
+			force[b+c] = force[a+c];
+		}
+		mass[k] = mass[i];
+		birthtime[k] = birthtime[i];
+		lifespan[k] = lifespan[i];
+		if (color != null) {
+			System.arraycopy(color, 4*i, color, 4*k, 4);
+			pointSize[k] = pointSize[i];
+		}
+		views[k] = views[i];
+		if (views[k] != null)
+			views[k].index = k;
+		heapIndex[k] = heapIndex[i];
+		if (heapIndex[k] >= 0)
+			heap[heapIndex[k]] = k;
+		ids[k] = ids[i];
+		slots[ids[k]] = k;
+	}
+
+	/**
+	 * @return id of the particle in slot i, which does not change while the particle lives
+	 */
+	public int id(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @return current slot of the particle with the given id, -1 if it has died
+	 */
+	public int slot(int id) {
+		return (id < idCount) ? slots[id] : -1;
+	}
+
+	/**
+	 * Checks, whether particle i has exceeded its lifespan at the given time
+	 */
+	public boolean isDead(int i, float time) {
+		if (lifespan[i] == Float.POSITIVE_INFINITY)
+			return false;
+
+		return time - birthtime[i] >= lifespan[i];
+	}
+
+	/**
+	 * Removes all particles which are dead at the given time. Each dead
+	 * particle is replaced by the last particle of the store, i.e. the order
+	 * of the remaining particles is not preserved.
+	 * @param time
+	 */
+	public void eliminateDeadParticles(float time) {
+		while (heapSize > 0 && isDead(heap[0], time)) {
+			int i = heap[0];
+			removeHeapTop();
+			slots[ids[i]] = -1;
+			freeIds[freeCount++] = ids[i];
+			if (views[i] != null) {
+				views[i].index = -1;
+				viewCount--;
+			}
+
+			int last = --size;
+			if (i != last)
+				move(last, i);
+			views[last] = null;
+			heapIndex[last] = -1;
+		}
+	}
+
+	/**
+	 * Reorders the particles along a Morton curve (Z-order) through their
+	 * bounding box, so that particles which are close in space are close in
+	 * memory. Bound particle objects and ids follow their particles.
+	 * @param pool Pool for a parallel sort, null for a sequential sort
+	 */
+	public void sortByMorton(ForkJoinPool pool) {
+		if (size < 2)
+			return;
+
+		float minX = pos[0], minY = pos[1], minZ = pos[2];
+		float maxX = minX, maxY = minY, maxZ = minZ;
+		for (int i = 1; i < size; i++) {
+			minX = Math.min(minX, pos[3*i]);
+			minY = Math.min(minY, pos[3*i+1]);
+			minZ = Math.min(minZ, pos[3*i+2]);
+			maxX = Math.max(maxX, pos[3*i]);
+			maxY = Math.max(maxY, pos[3*i+1]);
+			maxZ = Math.max(maxZ, pos[3*i+2]);
+		}
+		float extent = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+		float scale = (extent > 0) ? 1023.999f / extent : 0;
+
+		if (keys == null || keys.length < size)
+			keys = new long[mass.length];
+		for (int i = 0; i < size; i++) {
+			// NaN positions are sorted to the front
+			long code = spread((int) ((pos[3*i] - minX) * scale)) << 2 
+					| spread((int) ((pos[3*i+1] - minY) * scale)) << 1 
+					| spread((int) ((pos[3*i+2] - minZ) * scale));
+			keys[i] = code << 32 | i;
+		}
+		if (pool != null && size > 8192)
+			pool.invoke(new SortTask());
+		else
+			Arrays.sort(keys, 0, size);
+
+		permute();
+	}
+
+	/**
+	 * Inserts two zero bits between the lower 10 bits of v
+	 */
+	private static long spread(int v) {
+		long x = v & 0x3FF;
+		x = (x | x << 16) & 0x030000FFL;
+		x = (x | x << 8)  & 0x0300F00FL;
+		x = (x | x << 4)  & 0x030C30C3L;
+		x = (x | x << 2)  & 0x09249249L;
+		return x;
+	}
+
+	/**
+	 * Moves the particle in slot (int) keys[k] to slot k
+	 */
+	private void permute() {
+		if (spare1 == null || spare1.length != mass.length) {
+			spare3 = new float[pos.length];
+			spare1 = new float[mass.length];
+			spareInt = new int[mass.length];
+			spareViews = new Particle[mass.length];
+		}
+		if (color != null && (spare4 == null || spare4.length != color.length))
+			spare4 = new float[color.length];
+
+		for (int k = 0; k < size; k++) {
+			int i = (int) keys[k];
+			spare3[3*k]   = pos[3*i];
+			spare3[3*k+1] = pos[3*i+1];
+			spare3[3*k+2] = pos[3*i+2];
+		}
+		float[] tmp = pos; pos = spare3; spare3 = tmp;
+		for (int k = 0; k < size; k++) {
+			int i = (int) keys[k];
+			spare3[3*k]   = vel[3*i];
+			spare3[3*k+1] = vel[3*i+1];
+			spare3[3*k+2] = vel[3*i+2];
+		}
+		tmp = vel; vel = spare3; spare3 = tmp;
+		for (int k = 0; k < size; k++) {
+			int i = (int) keys[k];
+			spare3[3*k]   = force[3*i];
+			spare3[3*k+1] = force[3*i+1];
+			spare3[3*k+2] = force[3*i+2];
+		}
+		tmp = force; force = spare3; spare3 = tmp;
+
+		for (int k = 0; k < size; k++)
+			spare1[k] = mass[(int) keys[k]];
+		tmp = mass; mass = spare1; spare1 = tmp;
+		for (int k = 0; k < size; k++)
+			spare1[k] = birthtime[(int) keys[k]];
+		tmp = birthtime; birthtime = spare1; spare1 = tmp;
+		for (int k = 0; k < size; k++)
+			spare1[k] = lifespan[(int) keys[k]];
+		tmp = lifespan; lifespan = spare1; spare1 = tmp;
+		
+		if (color != null) {
+			for (int k = 0; k < size; k++)
+				System.arraycopy(color, 4*(int) keys[k], spare4, 4*k, 4);
+			tmp = color; color = spare4; spare4 = tmp;
+			for (int k = 0; k < size; k++)
+				spare1[k] = pointSize[(int) keys[k]];
+			tmp = pointSize; pointSize = spare1; spare1 = tmp;
+		}
+
+		for (int k = 0; k < size; k++) {
+			spareViews[k] = views[(int) keys[k]];
+			if (spareViews[k] != null)
+				spareViews[k].index = k;
+		}
+		Particle[] tmpViews = views; views = spareViews; spareViews = tmpViews;
+		Arrays.fill(views, size, views.length, null);
+
+		for (int k = 0; k < size; k++) {
+			spareInt[k] = heapIndex[(int) keys[k]];
+			if (spareInt[k] >= 0)
+				heap[spareInt[k]] = k;
+		}
+		int[] tmpInt = heapIndex; heapIndex = spareInt; spareInt = tmpInt;
+
+		for (int k = 0; k < size; k++) {
+			spareInt[k] = ids[(int) keys[k]];
+			slots[spareInt[k]] = k;
+		}
+		tmpInt = ids; ids = spareInt; spareInt = tmpInt;
+	}
+
+	/**
+	 * Sorts the keys, the parallel sort uses the pool of the task
+	 */
+	private class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			Arrays.parallelSort(keys, 0, size);
+		}
+	}
+
+	/**
+	 * @return time of death of particle i
+	 */
+	private float deathTime(int i) {
+		return birthtime[i] + lifespan[i];
+	}
+
+	private void removeHeapTop() {
+		heapIndex[heap[0]] = -1;
+		if (--heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapIndex[heap[0]] = 0;
+			siftDown(0);
+		}
+	}
+
+	private void siftUp(int h) {
+		int slot = heap[h];
+		float death = deathTime(slot);
+		while (h > 0) {
+			int parent = (h - 1) / 2;
+			if (deathTime(heap[parent]) <= death)
+				break;
+			heap[h] = heap[parent];
+			heapIndex[heap[h]] = h;
+			h = parent;
+		}
+		heap[h] = slot;
+		heapIndex[slot] = h;
+	}
+
+	private void siftDown(int h) {
+		int slot = heap[h];
+		float death = deathTime(slot);
+		while (true) {
+			int child = 2*h + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && deathTime(heap[child+1]) < deathTime(heap[child]))
+				child++;
+			if (deathTime(heap[child]) >= death)
+				break;
+			heap[h] = heap[child];
+			heapIndex[heap[h]] = h;
+			h = child;
+		}
+		heap[h] = slot;
+		heapIndex[slot] = h;
+	}
+
+	/**
+	 * Sets all forces to zero, including the forces of bound particle objects
+	 */
+	public void clearForces() {
+		Arrays.fill(force, 0, 3*size, 0);
+		if (viewCount == 0)
+			return;
+
+		for (int i = 0; i < size; i++) {
+			if (views[i] != null)
+				views[i].force.set(0, 0, 0);
+		}
+	}
+
+	/**
+	 * Fills a particle object with the values of slot i. Forces may then
+	 * be evaluated on the object and are added back by addForce().
+	 * @param i
+	 * @param p
+	 */
+	public void load(int i, Particle p) {
+		int j = 3*i;
+		p.pos.set(pos[j], pos[j+1], pos[j+2]);
+		p.vel.set(vel[j], vel[j+1], vel[j+2]);
+		p.force.set(0, 0, 0);
+		p.mass = mass[i];
+		p.birthtime = birthtime[i];
+		p.lifespan = lifespan[i];
+	}
+
+	/**
+	 * Adds the force accumulated in particle object p to slot i
+	 */
+	public void addForce(int i, Particle p) {
+		int j = 3*i;
+		force[j] += p.force.x;
+		force[j+1] += p.force.y;
+		force[j+2] += p.force.z;
+	}
+
+	/**
+	 * Writes positions and velocities to all bound particle objects
+	 */
+	void pushViews() {
+		if (viewCount == 0)
+			return;
+
+		for (int i = 0; i < size; i++) {
+			Particle p = views[i];
+			if (p == null)
+				continue;
+			int j = 3*i;
+			p.pos.set(pos[j], pos[j+1], pos[j+2]);
+			p.vel.set(vel[j], vel[j+1], vel[j+2]);
+		}
+	}
+
+	/**
+	 * Reads positions, velocities and masses back from all bound particle
+	 * objects, so that changes made through the particle objects are not lost
+	 */
+	void pullViews() {
+		if (viewCount == 0)
+			return;
+
+		for (int i = 0; i < size; i++) {
+			Particle p = views[i];
+			if (p == null)
+				continue;
+			int j = 3*i;
+			pos[j] = p.pos.x;
+			pos[j+1] = p.pos.y;
+			pos[j+2] = p.pos.z;
+			vel[j] = p.vel.x;
+			vel[j+1] = p.vel.y;
+			vel[j+2] = p.vel.z;
+			mass[i] = p.mass;
+		}
+	}
+
+	/**
+	 * Adds the forces which have been accumulated in the bound particle
+	 * objects to the store
+	 */
+	void gatherViewForces() {
+		if (viewCount == 0)
+			return;
+
+		for (int i = 0; i < size; i++) {
+			Particle p = views[i];
+			if (p != null)
+				addForce(i, p);
+		}
+	}
+}
@@ -10,13 +10,17 @@
 
 package particles;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import util.Vec3Array;
 
 /**
- * Particle System class, responsible for updating the state of all particles
+ * Particle System class, responsible for updating the state of all particles.
+ * The particle data is held in a ParticleStore; particle objects passed to the
+ * constructor are bound to the store and remain valid views of their particle.
  * @author Stefan
  *
  */
@@ -25,7 +29,7 @@ public class ParticleSystem {
 	/**
 	 * Particles of the particle system
 	 */
-	private ArrayList<Particle> particles;
+	private ParticleStore store;
 	
 	/** 
 	 * all forces in the particle system
@@ -34,6 +38,49 @@ public class ParticleSystem {
 	
 	private boolean dynamic; 
 	
+	/**
+	 * External forces of the current evaluation in dynamic mode
+	 */
+	private ArrayList<ExternalForce> externals;
+	
+	/**
+	 * Pool for the parallel evaluation of external forces, null for sequential evaluation
+	 */
+	private ForkJoinPool pool;
+	
+	/**
+	 * Number of particles which are evaluated as one unit of work
+	 */
+	private int chunkSize;
+	
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+	
+	/**
+	 * Colliders which correct the state at the end of each solver step
+	 */
+	private ArrayList<Collider> colliders;
+	
+	/**
+	 * Positions at the begin of the current solver step
+	 */
+	private float[] previousPos;
+	
+	/**
+	 * Number of updates between two sorts of the particles, 0 for no sorting
+	 */
+	private int sortInterval;
+	private int updatesSinceSort;
+	
+	/**
+	 * Time scale of each particle by slot, null if all particles run at full rate
+	 */
+	private float[] timeScales;
+	
+	/**
+	 * Suggested sort interval for systems with neighbor forces or colliders
+	 */
+	public static final int DEFAULT_SORT_INTERVAL = 30;
+	
 	
 	/**
 	 * Constructor
@@ -41,9 +88,21 @@ public class ParticleSystem {
 	 * @param forces
 	 */
 	public ParticleSystem(ArrayList<Particle> particles, ArrayList<Force> forces) {
-		this.particles = particles;
+		this.store = new ParticleStore(particles == null ? 0 : particles.size());
 		this.forces = forces;
 		this.dynamic = false;
+		this.externals = new ArrayList<ExternalForce>();
+		this.pool = null;
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+		this.colliders = new ArrayList<Collider>();
+		this.previousPos = new float[0];
+		this.sortInterval = 0;
+		this.updatesSinceSort = 0;
+		this.timeScales = null;
+		if (particles != null) {
+			for (Particle particle: particles)
+				store.bind(particle);
+		}
 	}
 	
 	/**
@@ -51,77 +110,255 @@ public class ParticleSystem {
 	 * @return dimension of differential system 
 	 */
 	public int getDimension() {
-		return particles.size() * 6;
+		return store.size() * 6;
+	}
+	
+	/**
+	 * @return the storage of all particles
+	 */
+	public ParticleStore getStore() {
+		return store;
+	}
+	
+	/**
+	 * @return all forces of the particle system, may be null
+	 */
+	public ArrayList<Force> getForces() {
+		return forces;
 	}
 	
 	/**
 	 * Returns the state, i.e. all positions and velocities of all particles in 
-	 * a big float array
-	 * @param state
+	 * a big float array.
+	 * 
+	 * Note: the layout has changed. The state used to be interleaved per 
+	 * particle, x0, v0, x1, v1, ... Now it holds all positions followed by 
+	 * all velocities, i.e. the position of particle i starts at 3*i and its 
+	 * velocity at 3*(size+i). Solvers which treat the state as a plain vector
+	 * are not affected, code which indexes the state by particle has to use
+	 * the new offsets.
+	 * @param state Receives the positions of all particles followed by the
+	 * velocities of all particles, see setState()
 	 */
 	public void getState(float[] state) {
-		for (int i = 0; i < particles.size(); i++) {
-			int j = 6*i;
-			state[j++] = particles.get(i).pos.x;
-			state[j++] = particles.get(i).pos.y;
-			state[j++] = particles.get(i).pos.z;
-			state[j++] = particles.get(i).vel.x;
-			state[j++] = particles.get(i).vel.y;
-			state[j]   = particles.get(i).vel.z;
-		}
+		store.pullViews();
+		int n = 3*store.size();
+		System.arraycopy(store.pos, 0, state, 0, n);
+		System.arraycopy(store.vel, 0, state, n, n);
 		return;
 	}
 	
 	/**
-	 * Sets the states of all particles
-	 * @param state Contains all the states of all particles. The ordering for 
-	 * particle 0 is x0.x, x0.y, x0.z. v0.x, v0.y, v0.z, x1.x,
-	 * and then all other particles follow in the same order
+	 * Sets the states of all particles. Note the changed layout, see getState().
+	 * @param state Contains all the states of all particles. The ordering is
+	 * x0.x, x0.y, x0.z, x1.x, ... for the positions of all particles, followed
+	 * by v0.x, v0.y, v0.z, v1.x, ... for the velocities of all particles
 	 */
 	public void setState(float[] state) {
-		for (int i = 0; i < particles.size(); i++) {
-			int j = 6*i;
-			particles.get(i).pos.x = state[j++];
-			particles.get(i).pos.y = state[j++];
-			particles.get(i).pos.z = state[j++];
-			particles.get(i).vel.x = state[j++];
-			particles.get(i).vel.y = state[j++];
-			particles.get(i).vel.z = state[j];
-		}
+		int n = 3*store.size();
+		System.arraycopy(state, 0, store.pos, 0, n);
+		System.arraycopy(state, n, store.vel, 0, n);
+		store.pushViews();
 		return;
 	}
 	
+	/**
+	 * Advances the state in place by h times a derivative, i.e. 
+	 * state = state + h * deriv, without copying the state.
+	 * @param deriv Derivative in the layout of getDerivative()
+	 * @param h Time step
+	 */
+	public void advance(float[] deriv, float h) {
+		advance(deriv, h, true, true);
+	}
+	
+	/**
+	 * Advances only the positions in place, i.e. x = x + h * deriv for the 
+	 * first half of deriv
+	 * @param deriv Derivative in the layout of getDerivative()
+	 * @param h Time step
+	 */
+	public void advancePositions(float[] deriv, float h) {
+		advance(deriv, h, true, false);
+	}
+	
+	/**
+	 * Advances only the velocities in place, i.e. v = v + h * deriv for the 
+	 * second half of deriv
+	 * @param deriv Derivative in the layout of getDerivative()
+	 * @param h Time step
+	 */
+	public void advanceVelocities(float[] deriv, float h) {
+		advance(deriv, h, false, true);
+	}
+	
+	/**
+	 * Adds h times the accelerations to the velocities in the first half of
+	 * deriv, i.e. turns deriv into the derivative of the positions after 
+	 * advanceVelocities(deriv, h). With time scales the acceleration of each
+	 * particle is scaled once more, so that a particle of scale s moves with
+	 * s (v + s h a) like in one step of length s h.
+	 * @param deriv Derivative in the layout of getDerivative()
+	 * @param h Time step
+	 */
+	public void kickScaled(float[] deriv, float h) {
+		int size = store.size();
+		int n = 3*size;
+		if (timeScales == null) {
+			ParticleKernels.axpy(h, deriv, n, deriv, 0, n);
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			float s = h * timeScales[i];
+			int j = 3*i;
+			deriv[j]   += s * deriv[n+j];
+			deriv[j+1] += s * deriv[n+j+1];
+			deriv[j+2] += s * deriv[n+j+2];
+		}
+	}
+	
+	/**
+	 * Writes the velocities of the store, scaled with the time scales, into 
+	 * the first half of deriv, e.g. after colliders have changed them
+	 * @param deriv Derivative in the layout of getDerivative()
+	 */
+	public void getScaledVelocities(float[] deriv) {
+		int size = store.size();
+		int n = 3*size;
+		float[] vel = store.vel;
+		if (timeScales == null) {
+			System.arraycopy(vel, 0, deriv, 0, n);
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			float s = timeScales[i];
+			int j = 3*i;
+			deriv[j]   = s * vel[j];
+			deriv[j+1] = s * vel[j+1];
+			deriv[j+2] = s * vel[j+2];
+		}
+	}
+	
+	/**
+	 * Advances positions and/or velocities of the particles which are 
+	 * integrated in this step, one run of consecutive slots at a time
+	 */
+	private void advance(float[] deriv, float h, boolean positions, boolean velocities) {
+		int size = store.size();
+		int n = 3*size;
+		int from = nextActive(0, size);
+		while (from < size) {
+			int to = nextInactive(from, size);
+			if (positions)
+				ParticleKernels.axpy(h, deriv, 3*from, store.pos, 3*from, 3*(to - from));
+			if (velocities)
+				ParticleKernels.axpy(h, deriv, n + 3*from, store.vel, 3*from, 3*(to - from));
+			from = nextActive(to, size);
+		}
+		store.pushViews();
+	}
+	
+	/**
+	 * @return first slot from i on with a time scale other than 0, to if there is none
+	 */
+	private int nextActive(int i, int to) {
+		if (timeScales != null) {
+			while (i < to && timeScales[i] == 0)
+				i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * @return first slot from i on with a time scale of 0, to if there is none
+	 */
+	private int nextInactive(int i, int to) {
+		if (timeScales == null)
+			return to;
+		while (i < to && timeScales[i] != 0)
+			i++;
+		return i;
+	}
+	
 	/**
 	 * Computes the right hand side of the Newton equation for time t.
 	 * The result is put into a float array
 	 * @param deriv	The value of the right hand side of the Newton equation at 
-	 * time t
+	 * time t, ordered like the state, i.e. all velocities followed by all
+	 * accelerations (no longer interleaved per particle, see getState())
 	 * @param t Time for which we can to compute the rhs
 	 */
 	public void getDerivative(float[] deriv, float t) {
+		store.pullViews();
 		clearForces();
 		updateForces(t);
-		for (int i = 0; i < particles.size(); i++) {
-			int j = 6*i;			
-			deriv[j++] = particles.get(i).vel.x;
-			deriv[j++] = particles.get(i).vel.y;
-			deriv[j++] = particles.get(i).vel.z;
-			
-			float mass =  particles.get(i).mass;
-			deriv[j++] = particles.get(i).force.x / mass;
-			deriv[j++] = particles.get(i).force.y / mass;
-			deriv[j]   = particles.get(i).force.z / mass;
+		int size = store.size();
+		int n = 3*size;
+		if (timeScales != null) {
+			scaledDerivative(deriv, size);
+			return;
 		}
+		System.arraycopy(store.vel, 0, deriv, 0, n);
+		ParticleKernels.accelerations(store.force, store.mass, deriv, n, size);
 		return;
 	}
 	
+	/**
+	 * Velocity and acceleration of each particle scaled with its time scale,
+	 * i.e. the particle moves as if its own time ran faster or slower.
+	 * Particles with scale 0 get a derivative of 0.
+	 */
+	private void scaledDerivative(float[] deriv, int size) {
+		int n = 3*size;
+		float[] vel = store.vel;
+		float[] force = store.force;
+		float[] mass = store.mass;
+		for (int i = 0; i < size; i++) {
+			float s = timeScales[i];
+			int j = 3*i;
+			if (s == 0) {
+				deriv[j] = deriv[j+1] = deriv[j+2] = 0;
+				deriv[n+j] = deriv[n+j+1] = deriv[n+j+2] = 0;
+				continue;
+			}
+			float a = s / mass[i];
+			deriv[j]     = s * vel[j];
+			deriv[j+1]   = s * vel[j+1];
+			deriv[j+2]   = s * vel[j+2];
+			deriv[n+j]   = a * force[j];
+			deriv[n+j+1] = a * force[j+1];
+			deriv[n+j+2] = a * force[j+2];
+		}
+	}
+	
+	/**
+	 * Sets a time scale per particle, which multiplies its derivative. A scale
+	 * of 0 freezes a particle, a scale of k lets it make k steps at once. 
+	 * Particles of scale 0 are skipped by the external forces in dynamic 
+	 * mode, the colliders and advance(), so they cost almost nothing. They 
+	 * are still seen as neighbors by other particles. The scales refer to 
+	 * slots of the store, so they have to be set again after particles have
+	 * been added, removed or sorted. 
+	 * 
+	 * Only solvers which move the particles with getDerivative() and the 
+	 * advance methods respect the scales, i.e. the explicit solvers. 
+	 * ImplicitEulerMethod reads the forces of the store and XPBDMethod moves 
+	 * the positions itself, neither supports time scales.
+	 * @param timeScales Scale by slot, null for full rate of all particles
+	 */
+	public void setTimeScales(float[] timeScales) {
+		this.timeScales = timeScales;
+	}
+	
+	public float[] getTimeScales() {
+		return timeScales;
+	}
+	
 	/**
 	 * Sets all forces to zero
 	 */
 	public void clearForces() {
-		for (Particle particle: particles) {
-			particle.force.set(0, 0, 0);
-		}
+		store.clearForces();
 	}
 	
 	/**
@@ -133,40 +370,264 @@ public class ParticleSystem {
 		if (forces == null)
 			return; 
 		
+		for (Force force: forces) {
+			if (force instanceof ExternalForce)
+				((ExternalForce) force).prepare(t, this);
+		}
+		
+		externals.clear();
 		for (Force force: forces) {
 			if (dynamic && force instanceof ExternalForce)
-			{
-				((ExternalForce)force).eval(t, particles);
-			}
+				externals.add((ExternalForce) force);
 			else
 				force.eval(t);
 		}
+		
+		if (!externals.isEmpty()) {
+			int chunks = (store.size() + chunkSize - 1) / chunkSize;
+			if (pool != null && chunks > 1) {
+				pool.invoke(new ForceTask(t, 0, chunks));
+			}
+			else {
+				for (int c = 0; c < chunks; c++)
+					evalChunk(t, c);
+			}
+		}
+		store.gatherViewForces();
 	}
 	
-	public Vec3Array getParticlePositions() {
-		Vec3Array positions = new Vec3Array (particles.size());
-		for (int i = 0; i < particles.size(); i++) {
-			positions.set(i, particles.get(i).pos);
+	/**
+	 * Evaluates all external forces on one chunk of particles. Every particle
+	 * receives its forces in the order of the force list, so the result does
+	 * not depend on the number of threads.
+	 * @param t Time
+	 * @param chunk Index of the chunk
+	 */
+	private void evalChunk(float t, int chunk) {
+		int end = Math.min((chunk + 1) * chunkSize, store.size());
+		int from = nextActive(chunk * chunkSize, end);
+		while (from < end) {
+			// runs of particles, which are integrated in this step, see setTimeScales()
+			int to = nextInactive(from, end);
+			for (ExternalForce external: externals) {
+				external.eval(t, store, from, to);
+			}
+			from = nextActive(to, end);
 		}
-		positions.setLength(particles.size());
-		return positions;
 	}
 	
-	public void eliminateDeadParticles(float time) {
+	public void addCollider(Collider collider) {
+		colliders.add(collider);
+	}
+	
+	public ArrayList<Collider> getColliders() {
+		return colliders;
+	}
+	
+	/**
+	 * Called by the solvers at the begin of each step. Remembers the
+	 * positions for the colliders.
+	 */
+	public void beginStep() {
+		if (colliders.isEmpty())
+			return;
 		
-		Iterator<Particle> itr = particles.iterator();
-		while (itr.hasNext())
-		{
-			if (itr.next().isDead(time))
-				itr.remove();
+		store.pullViews();
+		int n = 3*store.size();
+		if (previousPos.length < n)
+			previousPos = new float[store.pos.length];
+		System.arraycopy(store.pos, 0, previousPos, 0, n);
+	}
+	
+	/**
+	 * Called by the solvers at the end of each step. Lets the colliders
+	 * correct the paths of the particles since beginStep().
+	 * @return true, if the state may have been changed
+	 */
+	public boolean endStep() {
+		if (colliders.isEmpty())
+			return false;
+		
+		int chunks = (store.size() + chunkSize - 1) / chunkSize;
+		if (pool != null && chunks > 1) {
+			pool.invoke(new CollisionTask(0, chunks));
+		}
+		else {
+			for (int c = 0; c < chunks; c++)
+				collideChunk(c);
+		}
+		store.pushViews();
+		return true;
+	}
+	
+	private void collideChunk(int chunk) {
+		int end = Math.min((chunk + 1) * chunkSize, store.size());
+		int from = nextActive(chunk * chunkSize, end);
+		while (from < end) {
+			int to = nextInactive(from, end);
+			for (Collider collider: colliders) {
+				collider.collide(store, previousPos, from, to);
+			}
+			from = nextActive(to, end);
+		}
+	}
+	
+	/**
+	 * Splits a range of chunks until single chunks are evaluated
+	 */
+	private class ForceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final float t;
+		private final int first;
+		private final int last;
+		
+		ForceTask(float t, int first, int last) {
+			this.t = t;
+			this.first = first;
+			this.last = last;
+		}
+		
+		@Override
+		protected void compute() {
+			if (last - first == 1) {
+				evalChunk(t, first);
+				return;
+			}
+			int mid = (first + last) >>> 1;
+			invokeAll(new ForceTask(t, first, mid), new ForceTask(t, mid, last));
 		}
 	}
 	
+	/**
+	 * Splits a range of chunks until single chunks are collided
+	 */
+	private class CollisionTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int first;
+		private final int last;
+		
+		CollisionTask(int first, int last) {
+			this.first = first;
+			this.last = last;
+		}
+		
+		@Override
+		protected void compute() {
+			if (last - first == 1) {
+				collideChunk(first);
+				return;
+			}
+			int mid = (first + last) >>> 1;
+			invokeAll(new CollisionTask(first, mid), new CollisionTask(mid, last));
+		}
+	}
+	
+	/**
+	 * Enables the parallel evaluation of external forces in dynamic mode. 
+	 * The particles are split into chunks, each chunk is evaluated by one 
+	 * task of the pool. The forces of a particle are accumulated by a single
+	 * task, so the results are identical to the sequential evaluation.
+	 * Implementations of ExternalForce.eval() must be thread safe. Colliders
+	 * are applied to the same chunks.
+	 * @param pool Pool for the tasks, null for sequential evaluation
+	 * @param chunkSize Number of particles per task
+	 */
+	public void setParallel(ForkJoinPool pool, int chunkSize) {
+		assert (chunkSize > 0) : "Chunk size must be positive";
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * @return pool for parallel evaluation, null if evaluation is sequential
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * @return number of particles per unit of work
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	public Vec3Array getParticlePositions() {
+		int size = store.size();
+		Vec3Array positions = new Vec3Array (size);
+		System.arraycopy(store.pos, 0, positions.data(), 0, 3*size);
+		positions.setLength(size);
+		return positions;
+	}
+	
+	/**
+	 * Copies the positions of all particles into a buffer, e.g. the back half of a PositionBuffer
+	 * @param dst Buffer with room for 3*size floats from its position
+	 */
+	public void writePositions(FloatBuffer dst) {
+		dst.put(store.pos, 0, 3*store.size());
+	}
+	
+	/**
+	 * Writes positions for rendering between two steps, previous + alpha * (current - previous)
+	 * @param dst Buffer with room for 3*size floats from its position
+	 * @param previous Positions of the particles before the last step, in the layout of the store
+	 * @param alpha Interpolation factor in [0,1]
+	 */
+	public void writePositions(FloatBuffer dst, float[] previous, float alpha) {
+		float[] pos = store.pos;
+		int offset = dst.position();
+		int n = 3*store.size();
+		for (int j = 0; j < n; j++)
+			dst.put(offset + j, previous[j] + alpha * (pos[j] - previous[j]));
+		dst.position(offset + n);
+	}
+	
+	public void eliminateDeadParticles(float time) {
+		store.eliminateDeadParticles(time);
+	}
+	
+	/**
+	 * Sorts the particles of the store in Morton order, see ParticleStore.sortByMorton()
+	 */
+	public void sortParticles() {
+		store.sortByMorton(pool);
+		updatesSinceSort = 0;
+	}
+	
+	/**
+	 * Sorts the particles every sortInterval calls, so that neighbor queries
+	 * and collision tests access memory in spatial order. Must be called 
+	 * between solver steps, like ParticleController does.
+	 */
+	public void sortIfDue() {
+		if (sortInterval > 0 && ++updatesSinceSort >= sortInterval)
+			sortParticles();
+	}
+	
+	/**
+	 * @param sortInterval Number of calls of sortIfDue() between two sorts, 0 disables sorting
+	 */
+	public void setSortInterval(int sortInterval) {
+		this.sortInterval = sortInterval;
+	}
+	
+	/**
+	 * Adds particle objects to the system. Like the particles passed to the
+	 * constructor, the objects are bound to the store and keep receiving the
+	 * state of their particle, see ParticleStore.bind(). Emitters which do not
+	 * need particle objects should emit directly into the store instead.
+	 * @param newParticles
+	 */
 	public void addParticles(ArrayList<Particle> newParticles) {
-		assert (particles != null) : "Cannot add particles, as particle list is not initialized";
+		assert (store != null) : "Cannot add particles, as particle store is not initialized";
 		if (newParticles != null)
 		{
-			particles.addAll(newParticles);
+			store.ensureCapacity(store.size() + newParticles.size());
+			for (Particle particle: newParticles)
+				store.bind(particle);
 		}
 	}
 	
@@ -0,0 +1,236 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import scenegraph.ParticleGroup;
+import util.PositionBuffer;
+
+import animation.AbstController;
+
+/**
+ * Runs several particle controllers, e.g. the fuze and the explosion of a
+ * scene, concurrently on a work stealing pool. Each update advances all
+ * controllers in parallel, one task per controller, and then merges their
+ * positions into one position buffer, which is rendered by a single
+ * particle group.
+ *
+ * The controllers are independent: they must not share particle systems,
+ * solvers, emitters or forces, which keep state during an update like
+ * SpringNetwork. Particle systems may use the pool of the world for their
+ * own parallel force evaluation, see ParticleSystem.setParallel().
+ *
+ * The positions of all controllers have the same layout, either positions
+ * only or with attributes, see ParticleController.setAttributes().
+ */
+public class ParticleWorld extends AbstController {
+
+	private ArrayList<ParticleController> controllers;
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Merged positions of all controllers, null if there is no group to render them
+	 */
+	private ParticleGroup pgroup;
+	private PositionBuffer positions;
+
+	/**
+	 * Offset of the positions of each controller in the merged buffer
+	 */
+	private int[] offsets;
+
+	/**
+	 * Updated flags of the controllers in the last update
+	 */
+	private boolean[] updated;
+
+	/**
+	 * Constructor, the controllers are run on the common pool
+	 * @param pgroup Group which renders the particles of all controllers, null if they are not merged
+	 */
+	public ParticleWorld(ParticleGroup pgroup) {
+		this(pgroup, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor
+	 * @param pgroup Group which renders the particles of all controllers, null if they are not merged
+	 * @param pool Pool for the controllers, null to update them one after the other
+	 */
+	public ParticleWorld(ParticleGroup pgroup, ForkJoinPool pool) {
+		super(AbstController.RepeatType.CLAMP, 0, Float.POSITIVE_INFINITY);
+		setName("ParticleWorld");
+		this.controllers = new ArrayList<ParticleController>();
+		this.pool = pool;
+		this.pgroup = pgroup;
+		this.positions = null;
+		this.offsets = new int[0];
+		this.updated = new boolean[0];
+	}
+
+	/**
+	 * Adds a controller, which is updated by the world from now on. The
+	 * controller must not be updated elsewhere. If the controller has a 
+	 * particle group, the group is detached from the controller and draws
+	 * nothing anymore, the particles are drawn by the group of the world. 
+	 * The group stays in the scene graph, it may be removed by the caller.
+	 */
+	public void addController(ParticleController controller) {
+		controller.sharePositions();
+		controllers.add(controller);
+	}
+
+	public boolean removeController(ParticleController controller) {
+		return controllers.remove(controller);
+	}
+
+	public ArrayList<ParticleController> getControllers() {
+		return controllers;
+	}
+
+	/**
+	 * @return Number of particles in the merged positions
+	 */
+	public int getParticleCount() {
+		return (positions == null) ? 0 : positions.count();
+	}
+
+	/**
+	 * Updates all controllers with the global time, then merges their positions.
+	 * Overrides AbstController.update()
+	 */
+	@Override
+	public boolean update(float time) {
+		if (!super.update(time))
+			return false;
+
+		int n = controllers.size();
+		if (updated.length != n) {
+			updated = new boolean[n];
+			offsets = new int[n + 1];
+		}
+
+		if (pool != null && n > 1)
+			pool.invoke(new UpdateTask(time, 0, n));
+		else
+			updateControllers(time, 0, n);
+
+		boolean isUpdated = false;
+		for (int i = 0; i < n; i++)
+			isUpdated |= updated[i];
+
+		if (pgroup != null && n > 0)
+			merge();
+		return isUpdated;
+	}
+
+	private void updateControllers(float time, int from, int to) {
+		for (int i = from; i < to; i++)
+			updated[i] = controllers.get(i).update(time);
+	}
+
+	/**
+	 * Copies the positions of all controllers into the back half of the merged
+	 * buffer and swaps it
+	 */
+	private void merge() {
+		int n = controllers.size();
+		int stride = controllers.get(0).getPositionBuffer().stride();
+		for (int i = 0; i < n; i++) {
+			PositionBuffer source = controllers.get(i).getPositionBuffer();
+			assert (source.stride() == stride) : "Controllers write positions of different layout";
+			offsets[i+1] = offsets[i] + source.count();
+		}
+
+		if (positions == null || positions.stride() != stride) {
+			positions = new PositionBuffer(Math.max(offsets[n], 1), stride);
+			pgroup.setPositionBuffer(positions);
+		}
+
+		FloatBuffer back = positions.back(offsets[n]);
+		if (pool != null && n > 1)
+			pool.invoke(new MergeTask(back, 0, n));
+		else
+			copyPositions(back, 0, n);
+		positions.swap(offsets[n]);
+	}
+
+	/**
+	 * Copies the positions of the controllers from .. to-1 to their offsets in the back buffer
+	 */
+	private void copyPositions(FloatBuffer back, int from, int to) {
+		for (int i = from; i < to; i++) {
+			PositionBuffer source = controllers.get(i).getPositionBuffer();
+			FloatBuffer target = back.duplicate();
+			target.position(source.stride() * offsets[i]);
+			target.put(source.front());
+		}
+	}
+
+	/**
+	 * Updates a range of controllers, one task per controller
+	 */
+	private class UpdateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final float time;
+		private final int from;
+		private final int to;
+
+		UpdateTask(float time, int from, int to) {
+			this.time = time;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				updateControllers(time, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new UpdateTask(time, from, mid), new UpdateTask(time, mid, to));
+		}
+	}
+
+	/**
+	 * Merges the positions of a range of controllers
+	 */
+	private class MergeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final FloatBuffer back;
+		private final int from;
+		private final int to;
+
+		MergeTask(FloatBuffer back, int from, int to) {
+			this.back = back;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				copyPositions(back, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new MergeTask(back, from, mid), new MergeTask(back, mid, to));
+		}
+	}
+}
@@ -37,5 +37,23 @@ public class PointAttractor extends ExternalForce {
 		Vec3 f = Vec3.mul(direction, factor);	
 		p.force.add(f);
 	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] force = store.force;
+		float[] pos = store.pos;
+		float cx = attractor.x, cy = attractor.y, cz = attractor.z;
+		for (int i = from; i < to; i++) {
+			int j = 3*i;
+			float dx = cx - pos[j];
+			float dy = cy - pos[j+1];
+			float dz = cz - pos[j+2];
+			float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+			float factor = a / (b + distance) * invLength(distance);
+			force[j]   += dx * factor;
+			force[j+1] += dy * factor;
+			force[j+2] += dz * factor;
+		}
+	}
 }
 
@@ -47,6 +47,13 @@ public class PointEmitter extends Emitter implements ChannelInterface {
 	public Vec3 getInitialPosition() {
 		return new Vec3(startPos);
 	}
+	
+	@Override
+	protected void initialPosition(float[] pos, int offset) {
+		pos[offset] = startPos.x;
+		pos[offset+1] = startPos.y;
+		pos[offset+2] = startPos.z;
+	}
 
 
 	@Override
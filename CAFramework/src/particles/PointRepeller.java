@@ -2,7 +2,7 @@ package particles;
 
 import math.Vec3;
 
-public class PointRepeller extends Force {
+public class PointRepeller extends ExternalForce {
 	private Vec3 repeller;
 	float a;  	// nominator
 	float b;	// denominator
@@ -11,13 +11,23 @@ public class PointRepeller extends Force {
 	 * Constructor
 	 */
 	public PointRepeller(Particle p, Vec3 pos, float a, float b) {
-		super(p, null);
+		super(p);
 		this.repeller = pos;
 		this.a = a;
 		this.b = b;
 	}
 	
+	public PointRepeller(Vec3 pos, float a, float b) {
+		this(null, pos, a, b);
+	}
+	
 	public void eval(float time) {
+		eval(time, p);
+	}
+	
+	public void eval(float time, Particle p) {
+		assert (p != null) : "Cannot evaluate PointRepeller force, because particle is undefined";
+		
 		Vec3 direction = Vec3.sub( p.pos, repeller);
 		
 		float distance = direction.length();
@@ -27,6 +37,24 @@ public class PointRepeller extends Force {
 		Vec3 f = Vec3.mul(direction, factor);	
 		p.force.add(f);
 	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] force = store.force;
+		float[] positions = store.pos;
+		float cx = repeller.x, cy = repeller.y, cz = repeller.z;
+		for (int i = from; i < to; i++) {
+			int j = 3*i;
+			float dx = positions[j]   - cx;
+			float dy = positions[j+1] - cy;
+			float dz = positions[j+2] - cz;
+			float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+			float factor = a / (b + distance) * invLength(distance);
+			force[j]   += dx * factor;
+			force[j+1] += dy * factor;
+			force[j+2] += dz * factor;
+		}
+	}
 }
 
 
@@ -1,40 +1,67 @@
 package particles;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
-import math.Vec3;
-
-public class RandomForce extends Force {
+public class RandomForce extends ExternalForce {
 	float maxLength;  	
-	Random rand;
+	
+	/**
+	 * Seed of the random streams of the batch evaluation, random stream of 
+	 * the evaluation per particle
+	 */
+	private long seed;
+	private SplittableRandom random;
+	
+	/**
+	 * Scratch point of the evaluation per particle, which like the random
+	 * stream is not shared between threads
+	 */
+	private final float[] point = new float[3];
 	
 	/**
 	 * Constructor
 	 */
 	public RandomForce(Particle p, float maxLength) {
-		super(p, null);
+		super(p);
 		this.maxLength = maxLength;
-		this.rand = new Random();
+		setSeed(ParticleRandom.nextSeed());
+	}
+	
+	public RandomForce(float maxLength) {
+		this(null, maxLength);
+	}
+	
+	public void setSeed(long seed) {
+		this.seed = seed;
+		this.random = new SplittableRandom(seed);
 	}
 	
 	public void eval(float time) {
+		eval(time, p);
+	}
+	
+	public void eval(float time, Particle p) {
+		assert (p != null) : "Cannot evaluate RandomForce, because particle is undefined";
+		
 		// create random point on sphere
-		float a = 2.0f* ((float) Math.random()) -1.0f;
-		float b = 2.0f* ((float) Math.random()) -1.0f;
-		float s =a*a + b*b;
+		ParticleRandom.pointOnSphere(random, point, 0);
 		
-		while (s >= 1) {
-			a = 2.0f* ((float) Math.random()) -1.0f;
-			b = 2.0f* ((float) Math.random()) -1.0f;
-			s = a*a + b*b;
+		p.force.x += point[0] * maxLength;
+		p.force.y += point[1] * maxLength;
+		p.force.z += point[2] * maxLength;
+	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		SplittableRandom random = ParticleRandom.stream(seed, time, from);
+		float[] force = store.force;
+		float[] v = new float[3];
+		for (int i = from; i < to; i++) {
+			ParticleRandom.pointOnSphere(random, v, 0);
+			int j = 3*i;
+			force[j]   += v[0] * maxLength;
+			force[j+1] += v[1] * maxLength;
+			force[j+2] += v[2] * maxLength;
 		}
-		
-		float sq = (float) Math.sqrt(1-s);
-		
-		Vec3 f =  new Vec3(2.0f * a * sq * maxLength, 
-				2.0f * b * sq * maxLength, 
-				(1.0f - 2.0f * s) * maxLength);
-		
-		p.force.add(f);
 	}
 }
@@ -0,0 +1,73 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Classic Runge-Kutta method of fourth order. Each step needs four
+ * derivative evaluations.
+ */
+public class RungeKuttaMethod extends DifferentialSolver {
+
+	public RungeKuttaMethod (int steps) {
+		super(steps);
+	}
+
+	@Override
+	public void solve (ParticleSystem psystem, float tstart, float tend) {
+
+		evaluations = 0;
+		int dimension = psystem.getDimension();
+		float[] state = buffer(0, dimension);
+		float[] deriv = buffer(1, dimension);
+		float[] sum = buffer(2, dimension);
+
+		float deltaTime = tend - tstart;
+		float h = deltaTime / steps;
+
+		for (int i = 0 ; i < steps; i++) {
+			float t = tstart + h*i;
+
+			psystem.beginStep();
+			psystem.getState(state);
+
+			// k1
+			evaluate(psystem, sum, t);
+
+			// k2
+			psystem.advance(sum, 0.5f*h);
+			evaluate(psystem, deriv, t + 0.5f*h);
+			accumulate(sum, deriv, 2, dimension);
+
+			// k3
+			psystem.setState(state);
+			psystem.advance(deriv, 0.5f*h);
+			evaluate(psystem, deriv, t + 0.5f*h);
+			accumulate(sum, deriv, 2, dimension);
+
+			// k4
+			psystem.setState(state);
+			psystem.advance(deriv, h);
+			evaluate(psystem, deriv, t + h);
+			accumulate(sum, deriv, 1, dimension);
+
+			psystem.setState(state);
+			psystem.advance(sum, h / 6);
+			psystem.endStep();
+		}
+	}
+
+	/**
+	 * a[i] = a[i] + w * b[i] for the first n components
+	 */
+	private static void accumulate(float[] a, float[] b, float w, int n) {
+		ParticleKernels.axpy(w, b, 0, a, 0, n);
+	}
+}
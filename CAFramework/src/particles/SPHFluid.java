@@ -0,0 +1,170 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import math.MathUtil;
+
+/**
+ * Smoothed particle hydrodynamics after Mueller et al., "Particle-Based Fluid
+ * Simulation for Interactive Applications" (2003). Each evaluation first 
+ * computes the density and pressure of all particles with the poly6 kernel,
+ * then the pressure force with the gradient of the spiky kernel and the 
+ * viscosity force with the laplacian of the viscosity kernel. Both passes 
+ * run in parallel when the particle system has a pool, see 
+ * ParticleSystem.setParallel(). 
+ *
+ * The force is added like any other force, e.g. to the force list of a 
+ * ParticleController together with Gravity and a FloorRepeller.
+ */
+public class SPHFluid extends NeighborForce {
+	
+	private float restDensity;
+	private float viscosity;
+	
+	/**
+	 * Kernel constants for the smoothing radius
+	 */
+	private float poly6;
+	private float spikyGradient;
+	private float viscosityLaplacian;
+	
+	/**
+	 * Density and pressure of each particle of the prepared store
+	 */
+	private float[] density;
+	private float[] pressure;
+	
+	/**
+	 * Pass of the visits, true while densities are computed
+	 */
+	private boolean densityPass;
+	
+	/**
+	 * Constructor
+	 * @param radius Smoothing radius, particles interact within this distance
+	 * @param stiffness Gas constant, relates density and pressure
+	 * @param restDensity Density at which the pressure vanishes
+	 * @param viscosity
+	 */
+	public SPHFluid(float radius, float stiffness, float restDensity, float viscosity) {
+		super(radius, stiffness);
+		this.restDensity = restDensity;
+		this.viscosity = viscosity;
+		float h3 = radius * radius * radius;
+		float h6 = h3 * h3;
+		this.poly6 = 315f / (64 * MathUtil.PI * h6 * h3);
+		this.spikyGradient = -45f / (MathUtil.PI * h6);
+		this.viscosityLaplacian = 45f / (MathUtil.PI * h6);
+		this.density = new float[0];
+		this.pressure = new float[0];
+	}
+	
+	/**
+	 * @return densities of the particles at the last evaluation
+	 */
+	public float[] getDensities() {
+		return density;
+	}
+	
+	/**
+	 * Computes the densities and pressures of all particles
+	 */
+	@Override
+	public void prepare(float time, ParticleSystem psystem) {
+		super.prepare(time, psystem);
+		if (density.length < store.size()) {
+			density = new float[store.capacity()];
+			pressure = new float[store.capacity()];
+		}
+		
+		densityPass = true;
+		int chunkSize = psystem.getChunkSize();
+		int chunks = (store.size() + chunkSize - 1) / chunkSize;
+		ForkJoinPool pool = psystem.getPool();
+		if (pool != null && chunks > 1)
+			pool.invoke(new DensityTask(chunkSize, 0, chunks));
+		else
+			computeDensities(0, store.size());
+		densityPass = false;
+	}
+	
+	private void computeDensities(int from, int to) {
+		float h2 = radius * radius;
+		for (int i = from; i < to; i++) {
+			// the particle itself contributes with distance 0
+			density[i] = store.mass[i] * poly6 * h2 * h2 * h2;
+			hash.forEachNeighbor(i, radius, this);
+			// negative pressures would make the particles clump together
+			pressure[i] = Math.max(0, strength * (density[i] - restDensity));
+		}
+	}
+	
+	@Override
+	public void visit(int i, int j, float dx, float dy, float dz, float distanceSquared) {
+		if (densityPass) {
+			float w = radius * radius - distanceSquared;
+			density[i] += store.mass[j] * poly6 * w * w * w;
+			return;
+		}
+		
+		float distance = (float) Math.sqrt(distanceSquared);
+		if (distance < MathUtil.EPS)
+			return;
+		
+		float[] mass = store.mass;
+		float[] vel = store.vel;
+		float w = radius - distance;
+		
+		// pressure, the gradient with respect to x_i points along -d, i.e. from j to i
+		float fp = mass[j] * (pressure[i] + pressure[j]) / (2 * density[j]) * spikyGradient * w * w / distance;
+		
+		// viscosity
+		float fv = viscosity * mass[j] / density[j] * viscosityLaplacian * w;
+		
+		// acceleration is force density over density, the system divides by mass
+		float scale = mass[i] / density[i];
+		float[] force = store.force;
+		force[3*i]   += scale * (fp * dx + fv * (vel[3*j]   - vel[3*i]));
+		force[3*i+1] += scale * (fp * dy + fv * (vel[3*j+1] - vel[3*i+1]));
+		force[3*i+2] += scale * (fp * dz + fv * (vel[3*j+2] - vel[3*i+2]));
+	}
+	
+	/**
+	 * Computes the densities of a range of chunks
+	 */
+	private class DensityTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int chunkSize;
+		private final int first;
+		private final int last;
+		
+		DensityTask(int chunkSize, int first, int last) {
+			this.chunkSize = chunkSize;
+			this.first = first;
+			this.last = last;
+		}
+		
+		@Override
+		protected void compute() {
+			if (last - first == 1) {
+				int from = first * chunkSize;
+				computeDensities(from, Math.min(from + chunkSize, store.size()));
+				return;
+			}
+			int mid = (first + last) >>> 1;
+			invokeAll(new DensityTask(chunkSize, first, mid), new DensityTask(chunkSize, mid, last));
+		}
+	}
+}
@@ -38,4 +38,22 @@ public class Screw extends ExternalForce {
 		f = Vec3.mul(f, factor);	
 		p.force.add(f);
 	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] force = store.force;
+		float[] positions = store.pos;
+		float cx = pos.x, cy = pos.y, cz = pos.z;
+		for (int i = from; i < to; i++) {
+			int j = 3*i;
+			float dx = positions[j]   - cx;
+			float dy = positions[j+1] - cy;
+			float dz = positions[j+2] - cz;
+			float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+			float factor = a / (b + distance) * invLength(distance);
+			force[j]   -= dz * factor;
+			force[j+1] += dy * factor;
+			force[j+2] += dx * factor;
+		}
+	}
 }
@@ -0,0 +1,47 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Semi-implicit (symplectic) Euler method. The velocities are updated first,
+ * the positions are then moved with the new velocities. Unlike the explicit
+ * Euler method the energy of an undamped spring does not drift, and each step
+ * needs one derivative evaluation.
+ */
+public class SemiImplicitEulerMethod extends DifferentialSolver {
+
+	public SemiImplicitEulerMethod (int steps) {
+		super(steps);
+	}
+
+	@Override
+	public void solve (ParticleSystem psystem, float tstart, float tend) {
+
+		evaluations = 0;
+		int dimension = psystem.getDimension();
+		float[] deriv = buffer(0, dimension);
+
+		float deltaTime = tend - tstart;
+		float h = deltaTime / steps;
+
+		for (int i = 0 ; i < steps; i++) {
+			float t = tstart + h*i;
+			psystem.beginStep();
+			evaluate(psystem, deriv, t);
+			psystem.advanceVelocities(deriv, h);
+
+			// new velocity v + h * a
+			psystem.kickScaled(deriv, h);
+			psystem.advancePositions(deriv, h);
+			psystem.endStep();
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Uniform grid over the positions of a particle store for neighbor queries.
+ * Space is divided into cubic cells, which are hashed into a table with at
+ * least twice as many buckets as particles. The particles are sorted by 
+ * bucket, each bucket stores the index of its first particle (cell lists).
+ * Positions are copied in sorted order, so the particles of a cell are
+ * scanned without jumping through the store.
+ *
+ * The hash has to be rebuilt whenever the positions have changed, queries
+ * see the positions at the time of the build. Queries may run in parallel.
+ */
+public class SpatialHash {
+	
+	/**
+	 * Number of particles per task of the parallel build
+	 */
+	private static final int GRAIN = 8192;
+	
+	private float cellSize;
+	private float invCellSize;
+	
+	private ParticleStore store;
+	private int size;
+	
+	/**
+	 * Bucket in the upper and particle index in the lower 32 bits, sorted
+	 */
+	private long[] keys;
+	
+	/**
+	 * Particle index, position and packed cell coordinates in sorted order
+	 */
+	private int[] sortedIndex;
+	private float[] sortedPos;
+	private long[] sortedCell;
+	
+	/**
+	 * Index of the first key of each bucket, -1 for empty buckets
+	 */
+	private int[] bucketStart;
+	
+	/**
+	 * Constructor
+	 * @param cellSize Edge length of the cells, usually the largest query radius
+	 */
+	public SpatialHash(float cellSize) {
+		this.cellSize = cellSize;
+		this.invCellSize = 1 / cellSize;
+		this.store = null;
+		this.size = 0;
+		this.keys = new long[0];
+		this.sortedIndex = new int[0];
+		this.sortedPos = new float[0];
+		this.sortedCell = new long[0];
+		this.bucketStart = new int[0];
+	}
+	
+	public float getCellSize() {
+		return cellSize;
+	}
+	
+	/**
+	 * @return number of particles in the hash
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Sorts the particles of a store into the cells of the hash
+	 * @param store
+	 * @param pool Pool for a parallel build, null for a sequential build
+	 */
+	public void build(ParticleStore store, ForkJoinPool pool) {
+		this.store = store;
+		this.size = store.size();
+		if (keys.length < size) {
+			keys = new long[store.capacity()];
+			sortedIndex = new int[store.capacity()];
+			sortedPos = new float[3*store.capacity()];
+			sortedCell = new long[store.capacity()];
+		}
+		int buckets = Integer.highestOneBit(Math.max(2*size, 8) - 1) << 1;
+		if (bucketStart.length != buckets)
+			bucketStart = new int[buckets];
+		
+		if (pool != null && size > GRAIN) {
+			pool.invoke(new BuildTask(0, size));
+			pool.invoke(new SortTask());
+		}
+		else {
+			computeKeys(0, size);
+			Arrays.sort(keys, 0, size);
+		}
+		
+		Arrays.fill(bucketStart, -1);
+		float[] pos = store.pos;
+		int last = -1;
+		for (int k = 0; k < size; k++) {
+			int bucket = (int) (keys[k] >>> 32);
+			if (bucket != last) {
+				bucketStart[bucket] = k;
+				last = bucket;
+			}
+			int i = (int) keys[k];
+			sortedIndex[k] = i;
+			sortedPos[3*k]   = pos[3*i];
+			sortedPos[3*k+1] = pos[3*i+1];
+			sortedPos[3*k+2] = pos[3*i+2];
+			sortedCell[k] = pack(cell(pos[3*i]), cell(pos[3*i+1]), cell(pos[3*i+2]));
+		}
+	}
+	
+	/**
+	 * Visits all particles j != i within the given distance of particle i 
+	 * @param i
+	 * @param radius
+	 * @param visitor
+	 */
+	public void forEachNeighbor(int i, float radius, NeighborVisitor visitor) {
+		float[] pos = store.pos;
+		query(i, pos[3*i], pos[3*i+1], pos[3*i+2], radius, visitor);
+	}
+	
+	/**
+	 * Visits all particles within the given distance of a point 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param radius
+	 * @param visitor
+	 */
+	public void forEachNeighbor(float x, float y, float z, float radius, NeighborVisitor visitor) {
+		query(-1, x, y, z, radius, visitor);
+	}
+	
+	private void query(int i, float x, float y, float z, float radius, NeighborVisitor visitor) {
+		if (size == 0)
+			return;
+		
+		float[] pos = sortedPos;
+		long[] keys = this.keys;
+		long[] cells = sortedCell;
+		int[] start = bucketStart;
+		int size = this.size;
+		float radiusSquared = radius * radius;
+		int range = (int) Math.ceil(radius * invCellSize);
+		int cx = cell(x);
+		int cy = cell(y);
+		int cz = cell(z);
+		
+		for (int iz = cz - range; iz <= cz + range; iz++) {
+			for (int iy = cy - range; iy <= cy + range; iy++) {
+				for (int ix = cx - range; ix <= cx + range; ix++) {
+					int bucket = bucket(ix, iy, iz);
+					int k = start[bucket];
+					if (k < 0)
+						continue;
+					
+					long cell = pack(ix, iy, iz);
+					for (; k < size && (int) (keys[k] >>> 32) == bucket; k++) {
+						// skip particles of other cells in the same bucket, they are visited with their own cell
+						if (cells[k] != cell)
+							continue;
+						int j = sortedIndex[k];
+						if (j == i)
+							continue;
+						int p = 3*k;
+						float dx = pos[p] - x;
+						float dy = pos[p+1] - y;
+						float dz = pos[p+2] - z;
+						float distanceSquared = dx*dx + dy*dy + dz*dz;
+						if (distanceSquared < radiusSquared)
+							visitor.visit(i, j, dx, dy, dz, distanceSquared);
+					}
+				}
+			}
+		}
+	}
+	
+	private int cell(float x) {
+		return (int) Math.floor(x * invCellSize);
+	}
+	
+	/**
+	 * Packs 21 bits of each cell coordinate into one value. Cells with equal
+	 * values are at least 2^21 cells apart and never within the query radius.
+	 */
+	private static long pack(int x, int y, int z) {
+		return (x & 0x1FFFFFL) | (y & 0x1FFFFFL) << 21 | (z & 0x1FFFFFL) << 42;
+	}
+	
+	private int bucket(int x, int y, int z) {
+		return ((x * 73856093) ^ (y * 19349663) ^ (z * 83492791)) & (bucketStart.length - 1);
+	}
+	
+	private void computeKeys(int from, int to) {
+		float[] pos = store.pos;
+		for (int i = from; i < to; i++) {
+			int p = 3*i;
+			long bucket = bucket(cell(pos[p]), cell(pos[p+1]), cell(pos[p+2]));
+			keys[i] = (bucket << 32) | i;
+		}
+	}
+	
+	/**
+	 * Computes the keys of a range of particles
+	 */
+	private class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int from;
+		private final int to;
+		
+		BuildTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from <= GRAIN) {
+				computeKeys(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new BuildTask(from, mid), new BuildTask(mid, to));
+		}
+	}
+	
+	/**
+	 * Sorts the keys, the parallel sort uses the pool of the task
+	 */
+	private class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected void compute() {
+			Arrays.parallelSort(keys, 0, size);
+		}
+	}
+}
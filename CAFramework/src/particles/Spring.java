@@ -17,7 +17,7 @@ import math.Vec3;
  * @author Stefan
  *
  */
-public class Spring extends Force {
+public class Spring extends Force implements PairForce {
 	private Particle p2;
 	float k;  	// spring constant
 	float L;	// length of spring
@@ -43,4 +43,47 @@ public class Spring extends Force {
 		Vec3 f = Vec3.mul(pMinusp2, factor);	
 		p.force.add(f);
 	}
+	
+	public Particle getParticle() {
+		return p;
+	}
+	
+	public Particle getOtherParticle() {
+		return p2;
+	}
+	
+	public void jacobian(float[] dfdx, float[] dfdv) {
+		springJacobian(p, p2, k, L, dfdx);
+		outer(dfdv, 0, 0, 0, 0, 0);
+	}
+	
+	/**
+	 * Derivative of the elastic force -k (|x| - L) x/|x|, x = p - p2, with 
+	 * respect to the position of p. The transversal part is dropped while 
+	 * the spring is compressed, which keeps the matrix negative semidefinite.
+	 */
+	static void springJacobian(Particle p, Particle p2, float k, float L, float[] dfdx) {
+		float dx = p.pos.x - p2.pos.x;
+		float dy = p.pos.y - p2.pos.y;
+		float dz = p.pos.z - p2.pos.z;
+		float length = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (length == 0) {
+			outer(dfdx, 0, -k, 0, 0, 0);
+			return;
+		}
+		
+		// u u^T + t (I - u u^T) = (1-t) u u^T + t I
+		float t = Math.max(0, 1 - L / length);
+		float scale = -k * (1 - t) / (length * length);
+		outer(dfdx, scale, -k * t, dx, dy, dz);
+	}
+	
+	/**
+	 * m = a * d d^T + b * I as row major 3x3 matrix
+	 */
+	static void outer(float[] m, float a, float b, float dx, float dy, float dz) {
+		m[0] = a*dx*dx + b;	m[1] = a*dx*dy;		m[2] = a*dx*dz;
+		m[3] = a*dy*dx;		m[4] = a*dy*dy + b;	m[5] = a*dy*dz;
+		m[6] = a*dz*dx;		m[7] = a*dz*dy;		m[8] = a*dz*dz + b;
+	}
 }
@@ -0,0 +1,260 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import math.MathUtil;
+
+/**
+ * Network of damped springs stored in plain arrays, replacing one
+ * DampedSpring object per spring and direction. Each spring is evaluated
+ * once and adds equal and opposite forces to both of its particles.
+ *
+ * Particles are referenced by their id in the particle store, see
+ * ParticleStore.id(). For the particles passed to the constructor of
+ * ParticleSystem the id is the index in the list. Springs of dead
+ * particles are skipped, but as ids of dead particles are reused for new
+ * ones, springs should only connect particles of infinite lifespan.
+ *
+ * As a spring acts on two particles, the springs cannot be split into chunks
+ * of particles like other external forces. All springs are evaluated in
+ * prepare() instead. The springs are colored such that no two springs of one
+ * color share a particle, so the springs of one color are evaluated in
+ * parallel on the pool of the particle system, one color after the other.
+ */
+public class SpringNetwork extends ExternalForce {
+
+	/**
+	 * Number of springs below which a color is not split further
+	 */
+	private static final int GRAIN = 4096;
+
+	/**
+	 * Particle ids of both ends of the springs
+	 */
+	private int[] first;
+	private int[] second;
+
+	/**
+	 * Spring constant, damping constant and rest length of the springs
+	 */
+	private float[] ks;
+	private float[] kd;
+	private float[] length;
+
+	private int count;
+
+	/**
+	 * The springs colorStart[c] .. colorStart[c+1]-1 share no particle,
+	 * the last range holds the springs without color
+	 */
+	private int[] colorStart;
+	private boolean colored;
+
+	/**
+	 * Store and pool of the current evaluation
+	 */
+	private ParticleStore store;
+	private ForkJoinPool pool;
+
+	public SpringNetwork() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity Initial number of springs
+	 */
+	public SpringNetwork(int capacity) {
+		super(null);
+		capacity = Math.max(capacity, 1);
+		this.first = new int[capacity];
+		this.second = new int[capacity];
+		this.ks = new float[capacity];
+		this.kd = new float[capacity];
+		this.length = new float[capacity];
+		this.count = 0;
+		this.colorStart = new int[0];
+		this.colored = false;
+	}
+
+	/**
+	 * Adds a damped spring between two particles
+	 * @param a Id of the first particle
+	 * @param b Id of the second particle
+	 * @param ks Spring material constant
+	 * @param kd Damping constant
+	 * @param L Rest length of the spring
+	 */
+	public void addSpring(int a, int b, float ks, float kd, float L) {
+		if (count == first.length) {
+			int capacity = 2 * count;
+			first = Arrays.copyOf(first, capacity);
+			second = Arrays.copyOf(second, capacity);
+			this.ks = Arrays.copyOf(this.ks, capacity);
+			this.kd = Arrays.copyOf(this.kd, capacity);
+			length = Arrays.copyOf(length, capacity);
+		}
+		first[count] = a;
+		second[count] = b;
+		this.ks[count] = ks;
+		this.kd[count] = kd;
+		length[count] = L;
+		count++;
+		colored = false;
+	}
+
+	/**
+	 * Adds a damped spring between two particles of a store, the rest length
+	 * is their current distance
+	 * @param store Store of the particles
+	 * @param i Index of the first particle in the store
+	 * @param j Index of the second particle in the store
+	 */
+	public void addSpring(ParticleStore store, int i, int j, float ks, float kd) {
+		float dx = store.pos[3*i] - store.pos[3*j];
+		float dy = store.pos[3*i+1] - store.pos[3*j+1];
+		float dz = store.pos[3*i+2] - store.pos[3*j+2];
+		addSpring(store.id(i), store.id(j), ks, kd, (float) Math.sqrt(dx*dx + dy*dy + dz*dz));
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return Number of colors of the parallel evaluation
+	 */
+	public int colors() {
+		if (!colored)
+			color();
+		return colorStart.length - 2;
+	}
+
+	public void clear() {
+		count = 0;
+		colored = false;
+	}
+
+	@Override
+	public void prepare(float time, ParticleSystem psystem) {
+		if (!colored)
+			color();
+
+		store = psystem.getStore();
+		pool = psystem.getPool();
+		int colors = colorStart.length - 1;
+		for (int c = 0; c < colors; c++) {
+			int from = colorStart[c];
+			int to = colorStart[c+1];
+			if (pool != null && c < colors - 1 && to - from > GRAIN)
+				pool.invoke(new SpringTask(from, to));
+			else
+				evalSprings(from, to);
+		}
+	}
+
+	/**
+	 * The springs have already been evaluated in prepare()
+	 */
+	public void eval(float time) {
+	}
+
+	@Override
+	public void eval(float time, Particle particle) {
+	}
+
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+	}
+
+	/**
+	 * Adds the forces of the springs from .. to-1 to the force of both of their particles
+	 */
+	private void evalSprings(int from, int to) {
+		float[] pos = store.pos;
+		float[] vel = store.vel;
+		float[] force = store.force;
+		for (int s = from; s < to; s++) {
+			int i = store.slot(first[s]);
+			int j = store.slot(second[s]);
+			if (i < 0 || j < 0)
+				continue;
+
+			i *= 3;
+			j *= 3;
+			float dx = pos[i] - pos[j];
+			float dy = pos[i+1] - pos[j+1];
+			float dz = pos[i+2] - pos[j+2];
+			float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+			if (distance < MathUtil.EPS)
+				continue;
+
+			float dvx = vel[i] - vel[j];
+			float dvy = vel[i+1] - vel[j+1];
+			float dvz = vel[i+2] - vel[j+2];
+			float inv = 1 / distance;
+			float damping = kd[s] * (dvx*dx + dvy*dy + dvz*dz) * inv;
+			float f = -(ks[s] * (distance - length[s]) + damping) * inv;
+
+			float fx = f * dx;
+			float fy = f * dy;
+			float fz = f * dz;
+			force[i]   += fx;
+			force[i+1] += fy;
+			force[i+2] += fz;
+			force[j]   -= fx;
+			force[j+1] -= fy;
+			force[j+2] -= fz;
+		}
+	}
+
+	/**
+	 * Reorders the springs by color, see GraphColoring
+	 */
+	private void color() {
+		int[] order = new int[count];
+		colorStart = GraphColoring.color(new int[][] { first, second }, count, order);
+		first = GraphColoring.permute(first, order, count);
+		second = GraphColoring.permute(second, order, count);
+		ks = GraphColoring.permute(ks, order, count);
+		kd = GraphColoring.permute(kd, order, count);
+		length = GraphColoring.permute(length, order, count);
+		colored = true;
+	}
+
+	/**
+	 * Evaluates a range of springs of one color
+	 */
+	private class SpringTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		SpringTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= GRAIN) {
+				evalSprings(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new SpringTask(from, mid), new SpringTask(mid, to));
+		}
+	}
+}
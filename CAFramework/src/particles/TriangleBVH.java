@@ -0,0 +1,308 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy of axis aligned boxes over the triangles of a
+ * mesh. The tree is built once from the initial vertex positions by splitting
+ * the triangles at the middle of their centroids along the longest axis. When
+ * the vertices move, refit() only recomputes the boxes. Nodes are stored in
+ * flat arrays, the children of a node are consecutive and have larger indices
+ * than their parent.
+ */
+public class TriangleBVH {
+	
+	private static final int LEAF_SIZE = 4;
+	
+	/**
+	 * Maximum depth of the tree, the length of the traversal stack
+	 */
+	public static final int MAX_DEPTH = 64;
+	
+	private float[] vertices;
+	private int[] indices;
+	
+	/**
+	 * Triangles in the order of the leaves
+	 */
+	private int[] triangles;
+	
+	/**
+	 * Nodes: box as min x, y, z, max x, y, z and either the first of two 
+	 * children or -1 with the range of triangles for leaves
+	 */
+	private float[] bounds;
+	private int[] firstChild;
+	private int[] rangeStart;
+	private int[] rangeEnd;
+	private int nodeCount;
+	
+	/**
+	 * Constructor
+	 * @param vertices Vertex positions, x, y, z for each vertex
+	 * @param indices Vertex indices, three for each triangle
+	 */
+	public TriangleBVH(float[] vertices, int[] indices) {
+		this.vertices = vertices;
+		this.indices = indices;
+		
+		// triangles of zero area have no normal for the collision response
+		int count = 0;
+		int[] kept = new int[indices.length / 3];
+		for (int i = 0; i < kept.length; i++) {
+			if (!isDegenerate(i))
+				kept[count++] = i;
+		}
+		this.triangles = Arrays.copyOf(kept, count);
+		
+		int capacity = Math.max(1, 2*count);
+		this.bounds = new float[6*capacity];
+		this.firstChild = new int[capacity];
+		this.rangeStart = new int[capacity];
+		this.rangeEnd = new int[capacity];
+		
+		float[] centroids = new float[indices.length];
+		for (int k = 0; k < count; k++) {
+			int i = triangles[k];
+			for (int c = 0; c < 3; c++) {
+				centroids[3*i+c] = (vertices[3*indices[3*i]+c] + vertices[3*indices[3*i+1]+c] 
+						+ vertices[3*indices[3*i+2]+c]) / 3;
+			}
+		}
+		nodeCount = 1;
+		build(0, 0, count, centroids, 0);
+		refit(vertices);
+	}
+	
+	/**
+	 * @return number of triangles in the hierarchy, without triangles of zero area
+	 */
+	public int numTriangles() {
+		return triangles.length;
+	}
+	
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	/**
+	 * Recomputes the boxes for moved vertices, the triangles must not change
+	 * @param vertices New vertex positions
+	 */
+	public void refit(float[] vertices) {
+		this.vertices = vertices;
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			int b = 6*node;
+			bounds[b] = bounds[b+1] = bounds[b+2] = Float.POSITIVE_INFINITY;
+			bounds[b+3] = bounds[b+4] = bounds[b+5] = Float.NEGATIVE_INFINITY;
+			if (firstChild[node] < 0) {
+				for (int k = rangeStart[node]; k < rangeEnd[node]; k++) {
+					for (int v = 0; v < 3; v++) {
+						int p = 3*indices[3*triangles[k]+v];
+						for (int c = 0; c < 3; c++) {
+							bounds[b+c]   = Math.min(bounds[b+c],   vertices[p+c]);
+							bounds[b+3+c] = Math.max(bounds[b+3+c], vertices[p+c]);
+						}
+					}
+				}
+			}
+			else {
+				for (int child = firstChild[node]; child < firstChild[node] + 2; child++) {
+					for (int c = 0; c < 3; c++) {
+						bounds[b+c]   = Math.min(bounds[b+c],   bounds[6*child+c]);
+						bounds[b+3+c] = Math.max(bounds[b+3+c], bounds[6*child+3+c]);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Finds the first triangle hit by the segment from o to o + d
+	 * @param ox Start of segment
+	 * @param oy
+	 * @param oz
+	 * @param dx Direction of segment, its length is the length of the segment
+	 * @param dy
+	 * @param dz
+	 * @param hit Receives the segment parameter in [0, 1] of the intersection 
+	 *        and the unnormalized triangle normal, i.e. t, nx, ny, nz
+	 * @param stack Work array with at least MAX_DEPTH elements
+	 * @return index of the triangle, -1 if no triangle is hit
+	 */
+	public int intersect(float ox, float oy, float oz, float dx, float dy, float dz, float[] hit, int[] stack) {
+		if (triangles.length == 0)
+			return -1;
+		
+		float invX = 1 / dx;
+		float invY = 1 / dy;
+		float invZ = 1 / dz;
+		float tMax = 1;
+		int result = -1;
+		
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (!overlaps(node, ox, oy, oz, invX, invY, invZ, tMax))
+				continue;
+			
+			if (firstChild[node] >= 0) {
+				stack[top++] = firstChild[node];
+				stack[top++] = firstChild[node] + 1;
+				continue;
+			}
+			
+			for (int k = rangeStart[node]; k < rangeEnd[node]; k++) {
+				float t = intersectTriangle(triangles[k], ox, oy, oz, dx, dy, dz, tMax, hit);
+				if (t >= 0) {
+					tMax = t;
+					result = triangles[k];
+				}
+			}
+		}
+		if (result >= 0)
+			hit[0] = tMax;
+		return result;
+	}
+	
+	/**
+	 * Slab test of the segment against the box of a node
+	 */
+	private boolean overlaps(int node, float ox, float oy, float oz, float invX, float invY, float invZ, float tMax) {
+		int b = 6*node;
+		float t0 = (bounds[b] - ox) * invX;
+		float t1 = (bounds[b+3] - ox) * invX;
+		float tNear = Math.min(t0, t1);
+		float tFar = Math.max(t0, t1);
+		t0 = (bounds[b+1] - oy) * invY;
+		t1 = (bounds[b+4] - oy) * invY;
+		tNear = Math.max(tNear, Math.min(t0, t1));
+		tFar = Math.min(tFar, Math.max(t0, t1));
+		t0 = (bounds[b+2] - oz) * invZ;
+		t1 = (bounds[b+5] - oz) * invZ;
+		tNear = Math.max(tNear, Math.min(t0, t1));
+		tFar = Math.min(tFar, Math.max(t0, t1));
+		return tNear <= tFar && tFar >= 0 && tNear <= tMax;
+	}
+	
+	/**
+	 * Intersection of the segment with one triangle after Moeller and Trumbore
+	 * @return segment parameter of the intersection, -1 if there is none before tMax
+	 */
+	private float intersectTriangle(int triangle, float ox, float oy, float oz, 
+			float dx, float dy, float dz, float tMax, float[] hit) {
+		int a = 3*indices[3*triangle];
+		int b = 3*indices[3*triangle+1];
+		int c = 3*indices[3*triangle+2];
+		float e1x = vertices[b] - vertices[a], e1y = vertices[b+1] - vertices[a+1], e1z = vertices[b+2] - vertices[a+2];
+		float e2x = vertices[c] - vertices[a], e2y = vertices[c+1] - vertices[a+1], e2z = vertices[c+2] - vertices[a+2];
+		
+		// p = d x e2
+		float px = dy * e2z - dz * e2y;
+		float py = dz * e2x - dx * e2z;
+		float pz = dx * e2y - dy * e2x;
+		float det = e1x * px + e1y * py + e1z * pz;
+		if (det == 0)
+			return -1;
+		float invDet = 1 / det;
+		
+		float sx = ox - vertices[a], sy = oy - vertices[a+1], sz = oz - vertices[a+2];
+		float u = (sx * px + sy * py + sz * pz) * invDet;
+		if (u < 0 || u > 1)
+			return -1;
+		
+		// q = s x e1
+		float qx = sy * e1z - sz * e1y;
+		float qy = sz * e1x - sx * e1z;
+		float qz = sx * e1y - sy * e1x;
+		float v = (dx * qx + dy * qy + dz * qz) * invDet;
+		if (v < 0 || u + v > 1)
+			return -1;
+		
+		float t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+		if (t < 0 || t > tMax)
+			return -1;
+		
+		// normal e1 x e2, zero if the triangle has collapsed after a refit
+		float nx = e1y * e2z - e1z * e2y;
+		float ny = e1z * e2x - e1x * e2z;
+		float nz = e1x * e2y - e1y * e2x;
+		if (nx == 0 && ny == 0 && nz == 0)
+			return -1;
+		hit[1] = nx;
+		hit[2] = ny;
+		hit[3] = nz;
+		return t;
+	}
+	
+	/**
+	 * @return true, if the normal of a triangle vanishes
+	 */
+	private boolean isDegenerate(int triangle) {
+		int a = 3*indices[3*triangle];
+		int b = 3*indices[3*triangle+1];
+		int c = 3*indices[3*triangle+2];
+		float e1x = vertices[b] - vertices[a], e1y = vertices[b+1] - vertices[a+1], e1z = vertices[b+2] - vertices[a+2];
+		float e2x = vertices[c] - vertices[a], e2y = vertices[c+1] - vertices[a+1], e2z = vertices[c+2] - vertices[a+2];
+		float nx = e1y * e2z - e1z * e2y;
+		float ny = e1z * e2x - e1x * e2z;
+		float nz = e1x * e2y - e1y * e2x;
+		return nx == 0 && ny == 0 && nz == 0;
+	}
+	
+	/**
+	 * Builds the subtree of a node over triangles[lo .. hi-1]
+	 */
+	private void build(int node, int lo, int hi, float[] centroids, int depth) {
+		rangeStart[node] = lo;
+		rangeEnd[node] = hi;
+		firstChild[node] = -1;
+		if (hi - lo <= LEAF_SIZE || depth == MAX_DEPTH - 2)
+			return;
+		
+		// longest axis of the centroids
+		float[] min = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+		float[] max = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+		for (int k = lo; k < hi; k++) {
+			for (int c = 0; c < 3; c++) {
+				min[c] = Math.min(min[c], centroids[3*triangles[k]+c]);
+				max[c] = Math.max(max[c], centroids[3*triangles[k]+c]);
+			}
+		}
+		int axis = 0;
+		for (int c = 1; c < 3; c++) {
+			if (max[c] - min[c] > max[axis] - min[axis])
+				axis = c;
+		}
+		
+		// partition at the middle, halve the range if all centroids fall to one side
+		float split = 0.5f * (min[axis] + max[axis]);
+		int mid = lo;
+		for (int k = lo; k < hi; k++) {
+			if (centroids[3*triangles[k]+axis] < split) {
+				int tmp = triangles[k];
+				triangles[k] = triangles[mid];
+				triangles[mid++] = tmp;
+			}
+		}
+		if (mid == lo || mid == hi)
+			mid = (lo + hi) >>> 1;
+		
+		int child = nodeCount;
+		nodeCount += 2;
+		firstChild[node] = child;
+		build(child, lo, mid, centroids, depth + 1);
+		build(child + 1, mid, hi, centroids, depth + 1);
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+/**
+ * Velocity Verlet method, a symplectic method of second order. The 
+ * acceleration at the end of a step is reused at the begin of the next step,
+ * so each step needs one derivative evaluation, plus one at the begin of each
+ * call of solve(). Velocity dependent forces like damping are evaluated with
+ * the velocity of the half step.
+ */
+public class VelocityVerletMethod extends DifferentialSolver {
+
+	public VelocityVerletMethod (int steps) {
+		super(steps);
+	}
+
+	@Override
+	public void solve (ParticleSystem psystem, float tstart, float tend) {
+
+		evaluations = 0;
+		int dimension = psystem.getDimension();
+		float[] deriv = buffer(0, dimension);
+
+		float deltaTime = tend - tstart;
+		float h = deltaTime / steps;
+
+		// particles may have been added or changed since the last call
+		evaluate(psystem, deriv, tstart);
+
+		for (int i = 0 ; i < steps; i++) {
+			float t = tstart + h*i;
+
+			// half step velocity v + h/2 * a, positions move with it
+			psystem.beginStep();
+			kick(psystem, deriv, 0.5f*h);
+			psystem.advancePositions(deriv, h);
+
+			evaluate(psystem, deriv, t + h);
+			kick(psystem, deriv, 0.5f*h);
+
+			// colliders may have changed the velocities
+			if (psystem.endStep())
+				psystem.getScaledVelocities(deriv);
+		}
+	}
+
+	/**
+	 * Advances the velocities by h times the acceleration, in the particle 
+	 * system and in the velocity half of deriv
+	 */
+	private static void kick(ParticleSystem psystem, float[] deriv, float h) {
+		psystem.advanceVelocities(deriv, h);
+		psystem.kickScaled(deriv, h);
+	}
+}
@@ -45,4 +45,14 @@ public class Viscous extends ExternalForce {
 		f.mul(-damping);
 		p.force.add(f);
 	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] force = store.force;
+		float[] vel = store.vel;
+		float d = -damping;
+		for (int j = 3*from; j < 3*to; j++) {
+			force[j] += d * vel[j];
+		}
+	}
 }
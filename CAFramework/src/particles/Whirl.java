@@ -2,7 +2,7 @@ package particles;
 
 import math.Vec3;
 
-public class Whirl extends Force {
+public class Whirl extends ExternalForce {
 	private Vec3 pos;
 	float a;  	// nominator
 	float b;	// denominator
@@ -11,13 +11,23 @@ public class Whirl extends Force {
 	 * Constructor
 	 */
 	public Whirl(Particle p, Vec3 pos, float a, float b) {
-		super(p, null);
+		super(p);
 		this.pos = pos;
 		this.a = a;
 		this.b = b;
 	}
 	
+	public Whirl(Vec3 pos, float a, float b) {
+		this(null, pos, a, b);
+	}
+	
 	public void eval(float time) {
+		eval(time, p);
+	}
+	
+	public void eval(float time, Particle p) {
+		assert (p != null) : "Cannot evaluate Whirl force, because particle is undefined";
+		
 		Vec3 direction = Vec3.sub( p.pos, pos);
 		
 		float distance = direction.length();
@@ -29,4 +39,22 @@ public class Whirl extends Force {
 		f = Vec3.mul(f, factor);	
 		p.force.add(f);
 	}
+	
+	@Override
+	public void eval(float time, ParticleStore store, int from, int to) {
+		float[] force = store.force;
+		float[] positions = store.pos;
+		float cx = pos.x, cy = pos.y, cz = pos.z;
+		for (int i = from; i < to; i++) {
+			int j = 3*i;
+			float dx = positions[j]   - cx;
+			float dy = positions[j+1] - cy;
+			float dz = positions[j+2] - cz;
+			float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+			float factor = a / (b + distance) * invLength(distance);
+			force[j]   -= dz * factor;
+			force[j+1] += dy * factor;
+			force[j+2] += dx * factor;
+		}
+	}
 }
@@ -0,0 +1,108 @@
+/*
+ * Cologne University of Applied Sciences
+ * Institute for Media and Imaging Technologies - Computer Animation
+ *
+ * Copyright (c) 2012 Cologne University of Applied Sciences. All rights reserved.
+ *
+ * This source code is property of the Cologne University of Applied Sciences. Any redistribution
+ * and use in source and binary forms, with or without modification, requires explicit permission.
+ */
+
+package particles;
+
+import java.util.ArrayList;
+
+/**
+ * Extended position based dynamics after Macklin et al. Each step moves the
+ * particles with the velocities and forces of the particle system to
+ * predicted positions, projects them onto the constraints in a number of
+ * Gauss-Seidel iterations and derives the new velocities from the change of
+ * position. The compliance of the constraints does not depend on the number
+ * of iterations or the step size, and the method stays stable with one large
+ * step per frame, where force based springs need many small steps.
+ *
+ * Particles of infinite mass are neither accelerated by forces nor moved by
+ * constraints, which pins them. Colliders of the particle system are applied
+ * at the end of each step like for the other solvers.
+ */
+public class XPBDMethod extends DifferentialSolver {
+
+	private int iterations;
+
+	private ArrayList<Constraints> constraints;
+
+	/**
+	 * Constructor
+	 * @param steps Number of steps per update
+	 * @param iterations Number of projections of all constraints per step
+	 */
+	public XPBDMethod (int steps, int iterations) {
+		super(steps);
+		this.iterations = iterations;
+		this.constraints = new ArrayList<Constraints>();
+	}
+
+	public void addConstraints(Constraints set) {
+		constraints.add(set);
+	}
+
+	public ArrayList<Constraints> getConstraints() {
+		return constraints;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	@Override
+	public void solve (ParticleSystem psystem, float tstart, float tend) {
+
+		evaluations = 0;
+		int dimension = psystem.getDimension();
+		int n = dimension / 2;
+		float[] deriv = buffer(0, dimension);
+		float[] previous = buffer(1, n);
+		ParticleStore store = psystem.getStore();
+
+		float deltaTime = tend - tstart;
+		float h = deltaTime / steps;
+		if (h <= 0)
+			return;
+
+		for (int i = 0 ; i < steps; i++) {
+			float t = tstart + h*i;
+			psystem.beginStep();
+			evaluate(psystem, deriv, t);
+			System.arraycopy(store.pos, 0, previous, 0, n);
+
+			// predict x + h (v + h a), pinned particles keep their velocity
+			float[] pos = store.pos;
+			float[] vel = store.vel;
+			float[] mass = store.mass;
+			for (int p = 0; p < n / 3; p++) {
+				for (int j = 3*p; j < 3*p + 3; j++) {
+					if (mass[p] < Float.POSITIVE_INFINITY)
+						vel[j] += h * deriv[n+j];
+					pos[j] += h * vel[j];
+				}
+			}
+
+			for (Constraints set: constraints)
+				set.reset();
+			for (int k = 0; k < iterations; k++) {
+				for (Constraints set: constraints)
+					set.project(store, h, psystem.getPool());
+			}
+
+			float invH = 1 / h;
+			for (int j = 0; j < n; j++)
+				vel[j] = (pos[j] - previous[j]) * invH;
+			store.pushViews();
+			psystem.endStep();
+		}
+	}
+}
@@ -25,6 +25,7 @@
 smooth in vec3 varyingNormal;
 smooth in vec3 varyingEcPosition;
 smooth in vec2 texOut;
+smooth in vec4 particleColor;
 
 // Lights 
 uniform int noLights ; 					// number of lights to be considered 
@@ -54,6 +55,7 @@ uniform vec4 colorVec;
 //Texture for current object (blends with material)
 uniform sampler2D tex;
 uniform int textured;	// Is the current object textured?
+uniform int particleAttributes;	// Are the colors given per particle?
 
 // Output: Calculated color 
 out vec4 vFragColor;
@@ -127,6 +129,12 @@ void AmbientLight (const in int i, inout vec4 gamb)
 void main (void) 
 {       
     
+	if (particleAttributes == 1)
+	{
+		vFragColor = particleColor;
+		return;
+	}
+	
 	if (noLights == 0)
 	{
 		vFragColor = colorVec;
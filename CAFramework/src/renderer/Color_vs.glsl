@@ -24,6 +24,11 @@ in vec3 texIn;
 in vec4 weights;
 in vec4 weightIndices;
 
+// Particle attributes, see PositionBuffer.ATTRIBUTES
+in vec4 vColor;
+in float vSize;
+in float vAge;
+
 // Transformation matrices
 
 uniform mat4 modelViewMatrix;
@@ -32,11 +37,14 @@ uniform mat3 normalMatrix;
 uniform mat4 jointMatrices [MAX_JOINTS];
 uniform int numWeights;
 uniform int textured;
+uniform int particleAttributes;
+uniform float pointSize;
 
 
 smooth out vec3 varyingNormal;
 smooth out vec3 varyingEcPosition;
 smooth out vec2 texOut;
+smooth out vec4 particleColor;
 
 void main(void) 
 {  
@@ -89,4 +97,10 @@ void main(void)
     
 	gl_Position = projectionMatrix * position;
 
+    if (particleAttributes == 1)
+    {
+    	particleColor = vColor;
+    	gl_PointSize = pointSize * vSize;
+    }
+
 }
\ No newline at end of file
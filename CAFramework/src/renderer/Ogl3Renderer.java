@@ -57,6 +57,7 @@ import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.opengl.GL31.*;
 import static org.lwjgl.opengl.GL32.*;
 import util.Image;
+import util.PositionBuffer;
 import util.Vec3Array;
 import util.VertexBuffer;
 
@@ -173,6 +174,7 @@ public class Ogl3Renderer extends AbstRenderer
 
 		meshBufferData = new HashMap<AbstGeometry, VertexBuffer>();
 		shaderProgram.setUniform("textured", 0);
+		shaderProgram.setUniform("particleAttributes", 0);
 	}
 
 	/**
@@ -463,8 +465,9 @@ public class Ogl3Renderer extends AbstRenderer
 	 */
 	public void draw(ParticleGroup pgroup)
 	{
-		Vec3Array points = pgroup.getParticlePositions();
-		if (points == null)
+		PositionBuffer positions = pgroup.getPositionBuffer();
+		Vec3Array points = (positions == null) ? pgroup.getParticlePositions() : null;
+		if (positions == null && points == null)
 			return;
 
 		VertexBuffer buffer = getBuffer(pgroup);
@@ -472,13 +475,44 @@ public class Ogl3Renderer extends AbstRenderer
 		{
 			buffer.createVAO();
 		}
-		buffer.loadVertices(points.toFloatBuffer());
-		int noPoints = points.length();
+
+		int noPoints;
+		boolean attributes = positions != null
+				&& positions.stride() == PositionBuffer.ATTRIBUTES;
+		if (attributes)
+		{
+			// positions with color, size and age interleaved in one buffer
+			noPoints = positions.count();
+			buffer.loadParticles(positions.front());
+		}
+		else if (positions != null)
+		{
+			// upload the shared direct buffer without copying
+			noPoints = positions.count();
+			buffer.loadVertices(positions.front());
+		}
+		else
+		{
+			noPoints = points.length();
+			buffer.loadVertices(points.toFloatBuffer());
+		}
 
 		buffer.useVAO();
 		// draw vertices via shader
 		glPointSize(pgroup.getPointSize());
+		if (attributes)
+		{
+			// point size and color per particle are set by the shaders
+			shaderProgram.setUniform("particleAttributes", 1);
+			shaderProgram.setUniform("pointSize", pgroup.getPointSize());
+			glEnable(GL_PROGRAM_POINT_SIZE);
+		}
 		glDrawArrays(GL_POINTS, 0, noPoints);
+		if (attributes)
+		{
+			glDisable(GL_PROGRAM_POINT_SIZE);
+			shaderProgram.setUniform("particleAttributes", 0);
+		}
 
 		// release buffers
 		glBindBuffer(GL_ARRAY_BUFFER, 0);
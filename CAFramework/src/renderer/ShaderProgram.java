@@ -67,6 +67,9 @@ public class ShaderProgram
 		glBindAttribLocation(m_Program, 2, "texIn");
 		glBindAttribLocation(m_Program, 3, "weights");
 		glBindAttribLocation(m_Program, 4, "weightIndices");
+		glBindAttribLocation(m_Program, 5, "vColor");
+		glBindAttribLocation(m_Program, 6, "vSize");
+		glBindAttribLocation(m_Program, 7, "vAge");
 
 		
 		glLinkProgram(  m_Program );
@@ -10,7 +10,10 @@
 
 package scenegraph;
 
+import java.nio.FloatBuffer;
+
 import renderer.AbstRenderer;
+import util.PositionBuffer;
 import util.Vec3Array;
 
 /**
@@ -27,6 +30,12 @@ public class ParticleGroup extends AbstGeometry
 	 */
 	Vec3Array particlePositions;
 
+	/**
+	 * Positions shared with a particle controller, which are used instead of
+	 * particlePositions, if set
+	 */
+	PositionBuffer positionBuffer;
+
 	/**
 	 * Size of points to be rendered
 	 */
@@ -44,6 +53,7 @@ public class ParticleGroup extends AbstGeometry
 	{
 		super("ParticleGroup");
 		particlePositions = null;
+		positionBuffer = null;
 		pointSize = 3;
 	}
 
@@ -57,6 +67,7 @@ public class ParticleGroup extends AbstGeometry
 	{
 		super("ParticleGroup");
 		particlePositions = particles;
+		positionBuffer = null;
 		pointSize = 3;
 	}
 
@@ -70,6 +81,7 @@ public class ParticleGroup extends AbstGeometry
 	{
 		super(obj);
 		this.particlePositions = obj.particlePositions;
+		this.positionBuffer = obj.positionBuffer;
 	}
 
 	@Override
@@ -102,14 +114,49 @@ public class ParticleGroup extends AbstGeometry
 		this.pointSize = size;
 	}
 
+	/**
+	 * Returns the positions of the particles. If the positions are shared in
+	 * a position buffer, a copy of its front half is returned.
+	 */
 	public Vec3Array getParticlePositions()
 	{
+		if (positionBuffer != null)
+		{
+			int count = positionBuffer.count();
+			int stride = positionBuffer.stride();
+			FloatBuffer front = positionBuffer.front();
+			Vec3Array positions = new Vec3Array(count);
+			float[] data = positions.data();
+			for (int i = 0; i < count; i++)
+			{
+				data[3 * i] = front.get(stride * i);
+				data[3 * i + 1] = front.get(stride * i + 1);
+				data[3 * i + 2] = front.get(stride * i + 2);
+			}
+			positions.setLength(count);
+			return positions;
+		}
 		return particlePositions;
 	}
 
 	public void setParticlePositions(Vec3Array particlePositions)
 	{
 		this.particlePositions = particlePositions;
+		this.positionBuffer = null;
+	}
+
+	public PositionBuffer getPositionBuffer()
+	{
+		return positionBuffer;
+	}
+
+	/**
+	 * Shares the positions with a producer, which fills the back half of the
+	 * buffer and swaps. The renderer uploads the front half without copying.
+	 */
+	public void setPositionBuffer(PositionBuffer positionBuffer)
+	{
+		this.positionBuffer = positionBuffer;
 	}
 
 }
@@ -0,0 +1,130 @@
+package util;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+
+
+
+/**
+ * Double buffered particle positions in one direct buffer, which is shared
+ * by a producer like ParticleController and a ParticleGroup. The producer
+ * fills the back half and swaps, the renderer uploads the front half
+ * directly. The buffer is only reallocated when the number of particles
+ * grows beyond its capacity.
+ *
+ * Each particle takes stride floats. With POSITIONS these are x, y, z only,
+ * with ATTRIBUTES the particle attributes follow interleaved in the same
+ * buffer: x, y, z, r, g, b, a, point size, normalized age.
+ */
+public final class PositionBuffer
+{
+	public static final int POSITIONS  = 3;
+	public static final int ATTRIBUTES = 9;
+
+	private static final float GROWTH_FACTOR = 1.5f;
+
+	/**
+	 * Both halves are views of one direct buffer
+	 */
+	private FloatBuffer[] halves;
+	private int[]         counts;
+	private volatile int  front;
+	private int           capacity;
+	private final int     stride;
+
+
+
+	public PositionBuffer()
+	{
+		this( 1024, POSITIONS );
+	}
+
+	/**
+	 * @param capacity initial number of particles
+	 * @param stride number of floats per particle, POSITIONS or ATTRIBUTES
+	 */
+	public PositionBuffer( int capacity, int stride )
+	{
+		this.stride = stride;
+		this.halves = new FloatBuffer[2];
+		this.counts = new int[2];
+		this.front  = 0;
+		allocate( Math.max( capacity, 1 ) );
+	}
+
+
+	/**
+	 * Returns the back half for count particles, with position 0 and limit
+	 * stride*count. The content is undefined until the producer has filled it.
+	 */
+	public FloatBuffer back( int count )
+	{
+		if( count > capacity )
+			grow( count );
+
+		FloatBuffer back = halves[1 - front];
+		back.clear();
+		back.limit( stride * count );
+		return back;
+	}
+
+	/**
+	 * Makes the back half with count particles the front half
+	 */
+	public void swap( int count )
+	{
+		counts[1 - front] = count;
+		front = 1 - front;
+	}
+
+	/**
+	 * Returns the front half with position 0 and limit stride*count()
+	 */
+	public FloatBuffer front()
+	{
+		int f = front;
+		FloatBuffer buffer = halves[f];
+		buffer.clear();
+		buffer.limit( stride * counts[f] );
+		return buffer;
+	}
+
+	/**
+	 * @return number of particles in the front half
+	 */
+	public int count()
+	{
+		return counts[front];
+	}
+
+	public int capacity()
+	{
+		return capacity;
+	}
+
+	public int stride()
+	{
+		return stride;
+	}
+
+
+	private void grow( int count )
+	{
+		FloatBuffer old = front();
+		int oldFront = front;
+		allocate( Math.max( count, (int) ( capacity * GROWTH_FACTOR ) ) );
+		halves[oldFront].put( old );
+	}
+
+	private void allocate( int capacity )
+	{
+		FloatBuffer buffer = BufferUtils.createFloatBuffer( 2 * stride * capacity );
+		buffer.limit( stride * capacity );
+		halves[0] = buffer.slice();
+		buffer.clear();
+		buffer.position( stride * capacity );
+		halves[1] = buffer.slice();
+		this.capacity = capacity;
+	}
+}
@@ -37,6 +37,9 @@ public class VertexBuffer
 	private final int TEXCOORDS = 2;
 	private final int WEIGHTS = 3;
 	private final int WEIGHTINDICES = 4;
+	private final int COLORS = 5;
+	private final int SIZES = 6;
+	private final int AGES = 7;
 
 	public VertexBuffer()
 	{
@@ -93,6 +96,37 @@ public class VertexBuffer
 
 		glEnableVertexAttribArray(VERTICES);
 		glVertexAttribPointer(VERTICES, 3, GL_FLOAT, false, 0, 0);
+		glDisableVertexAttribArray(COLORS);
+		glDisableVertexAttribArray(SIZES);
+		glDisableVertexAttribArray(AGES);
+		
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		glBindVertexArray(0);
+	}
+	
+	/**
+	 * Loads particles with interleaved attributes x, y, z, r, g, b, a, size, age
+	 * (see PositionBuffer.ATTRIBUTES) into one buffer
+	 */
+	public void loadParticles(FloatBuffer particles)
+	{
+		glBindVertexArray(VAOid);
+		
+		if (verticesBufferID == 0)
+			verticesBufferID = glGenBuffers();
+		
+		glBindBuffer(GL_ARRAY_BUFFER, verticesBufferID);
+		glBufferData(GL_ARRAY_BUFFER, particles, GL_DYNAMIC_DRAW);
+
+		int stride = 4 * PositionBuffer.ATTRIBUTES;
+		glEnableVertexAttribArray(VERTICES);
+		glVertexAttribPointer(VERTICES, 3, GL_FLOAT, false, stride, 0);
+		glEnableVertexAttribArray(COLORS);
+		glVertexAttribPointer(COLORS, 4, GL_FLOAT, false, stride, 12);
+		glEnableVertexAttribArray(SIZES);
+		glVertexAttribPointer(SIZES, 1, GL_FLOAT, false, stride, 28);
+		glEnableVertexAttribArray(AGES);
+		glVertexAttribPointer(AGES, 1, GL_FLOAT, false, stride, 32);
 		
 		glBindBuffer(GL_ARRAY_BUFFER, 0);
 		glBindVertexArray(0);